@@ -1,7 +1,7 @@
 package com.example.miapp.controller;
 
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import org.springframework.dao.DataAccessException;
 import org.springframework.http.HttpStatus;
@@ -14,17 +14,24 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.example.miapp.dto.CarritoItemRequest;
 import com.example.miapp.dto.CarritoItemResponse;
+import com.example.miapp.dto.CarritoMergeRequest;
+import com.example.miapp.dto.CarritoResumenResponse;
 import com.example.miapp.model.CarritoItem;
 import com.example.miapp.model.Producto;
-import com.example.miapp.model.Usuario;
 import com.example.miapp.repository.CarritoItemRepository;
-import com.example.miapp.repository.ProductoRepository;
-import com.example.miapp.repository.UsuarioRepository;
+import com.example.miapp.service.CarritoLinea;
+import com.example.miapp.service.CarritoMergeService;
+import com.example.miapp.service.CarritoStore;
+import com.example.miapp.service.CarritoSweeper;
+import com.example.miapp.service.Precios;
+import com.example.miapp.service.ProductoCatalogCache;
+import com.example.miapp.service.ReferenceResolver;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -33,31 +40,105 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 
 @RestController
 @RequestMapping("/api/v1/carrito_item")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = CursorPagination.NEXT_CURSOR_HEADER)
 @Tag(name = "CarritoItem", description = "Operaciones sobre items del carrito")
 public class CarritoItemController {
 
     private final CarritoItemRepository carritoRepo;
-    private final ProductoRepository productoRepo;
-    private final UsuarioRepository usuarioRepo;
+    private final ReferenceResolver references;
+    private final ProductoCatalogCache catalogCache;
+    private final CarritoStore carritoStore;
+    private final CarritoMergeService mergeService;
+    private final CarritoSweeper sweeper;
 
     public CarritoItemController(CarritoItemRepository carritoRepo,
-                                 ProductoRepository productoRepo,
-                                 UsuarioRepository usuarioRepo) {
+                                 ReferenceResolver references,
+                                 ProductoCatalogCache catalogCache,
+                                 CarritoStore carritoStore,
+                                 CarritoMergeService mergeService,
+                                 CarritoSweeper sweeper) {
         this.carritoRepo = carritoRepo;
-        this.productoRepo = productoRepo;
-        this.usuarioRepo = usuarioRepo;
+        this.references = references;
+        this.catalogCache = catalogCache;
+        this.carritoStore = carritoStore;
+        this.mergeService = mergeService;
+        this.sweeper = sweeper;
     }
 
-    @Operation(summary = "Listar todos los items del carrito")
+    @Operation(summary = "Listar items del carrito", description = "Con session_id o usuario_id devuelve solo ese carrito (completo, sin paginar). "
+            + "Sin filtros es el listado paginado por cursor (after/limit); la página siguiente se indica en X-Next-Cursor")
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "Lista de items obtenida correctamente")
     })
     @GetMapping
-    public List<CarritoItemResponse> getAllCarritoItems() {
-        return carritoRepo.findAll().stream()
-                .map(this::toResponse)
-                .collect(Collectors.toList());
+    public ResponseEntity<List<CarritoItemResponse>> getAllCarritoItems(@RequestParam(required = false) String after,
+                                                                        @RequestParam(required = false) Integer limit,
+                                                                        @RequestParam(name = "session_id", required = false) String sessionId,
+                                                                        @RequestParam(name = "usuario_id", required = false) Long usuarioId) {
+        if (CarritoStore.clave(sessionId, usuarioId) != null) {
+            return getCarrito(sessionId, usuarioId);
+        }
+        int size = CursorPagination.resolveLimit(limit);
+        // El listado lee la base: primero se escriben los cambios pendientes del store
+        carritoStore.flush();
+        List<CarritoItem> rows = carritoRepo.findByIdGreaterThanOrderByIdAsc(
+                CursorPagination.decodeAfter(after), CursorPagination.probe(size));
+        return CursorPagination.page(rows, size, CarritoItem::getId, this::toResponse);
+    }
+
+    @Operation(summary = "Obtener el carrito de una sesión o usuario",
+               description = "Lee el carrito vivo en memoria; si el usuario está identificado manda usuario_id")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Líneas del carrito"),
+        @ApiResponse(responseCode = "400", description = "Falta session_id o usuario_id")
+    })
+    @GetMapping("/carrito")
+    public ResponseEntity<List<CarritoItemResponse>> getCarrito(@RequestParam(name = "session_id", required = false) String sessionId,
+                                                                @RequestParam(name = "usuario_id", required = false) Long usuarioId) {
+        if (CarritoStore.clave(sessionId, usuarioId) == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "session_id o usuario_id es requerido");
+        }
+        return ResponseEntity.ok(carritoStore.lineas(sessionId, usuarioId).stream().map(this::toResponse).toList());
+    }
+
+    @Operation(summary = "Resumen del carrito de una sesión o usuario",
+               description = "Cantidad de líneas, unidades y subtotal (con descuentos de oferta), mantenidos en cada cambio del carrito")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Resumen del carrito"),
+        @ApiResponse(responseCode = "400", description = "Falta session_id o usuario_id")
+    })
+    @GetMapping("/carrito/resumen")
+    public ResponseEntity<CarritoResumenResponse> getResumen(@RequestParam(name = "session_id", required = false) String sessionId,
+                                                             @RequestParam(name = "usuario_id", required = false) Long usuarioId) {
+        if (CarritoStore.clave(sessionId, usuarioId) == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "session_id o usuario_id es requerido");
+        }
+        return ResponseEntity.ok(carritoStore.resumen(sessionId, usuarioId));
+    }
+
+    @Operation(summary = "Fusionar el carrito de sesión con el del usuario",
+               description = "Al iniciar sesión: las líneas anónimas de session_id pasan a usuario_id y los productos repetidos suman cantidad. "
+                       + "Devuelve el carrito resultante del usuario")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Carrito fusionado"),
+        @ApiResponse(responseCode = "400", description = "Falta session_id o usuario_id, o el usuario no existe")
+    })
+    @PostMapping("/merge")
+    public ResponseEntity<List<CarritoItemResponse>> mergeCarrito(@RequestBody CarritoMergeRequest req) {
+        references.escribir(() -> mergeService.merge(req.getSessionId(), req.getUsuarioId()));
+        return ResponseEntity.ok(carritoStore.lineas(null, req.getUsuarioId()).stream().map(this::toResponse).toList());
+    }
+
+    @Operation(summary = "Estadísticas del store de carritos")
+    @GetMapping("/store/stats")
+    public ResponseEntity<Map<String, Object>> getStoreStats() {
+        return ResponseEntity.ok(carritoStore.stats());
+    }
+
+    @Operation(summary = "Estadísticas de la limpieza de carritos abandonados", description = "Líneas borradas por ejecución y acumuladas")
+    @GetMapping("/limpieza/stats")
+    public ResponseEntity<Map<String, Object>> getLimpiezaStats() {
+        return ResponseEntity.ok(sweeper.stats());
     }
 
     @Operation(summary = "Obtener un item del carrito por id")
@@ -67,8 +148,8 @@ public class CarritoItemController {
     })
     @GetMapping("/{id}")
     public ResponseEntity<CarritoItemResponse> getCarritoItemById(@PathVariable Long id) {
-        return carritoRepo.findById(id)
-                .map(ci -> ResponseEntity.ok(toResponse(ci)))
+        return carritoStore.linea(id)
+                .map(l -> ResponseEntity.ok(toResponse(l)))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -85,29 +166,34 @@ public class CarritoItemController {
         if (productoId == null) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "producto_id es requerido");
         }
+        validarCantidad(req);
 
         // 2) Resolver Producto
-        Producto producto = productoRepo.findById(productoId)
+        Producto producto = catalogCache.findById(productoId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Producto no existe: " + productoId));
 
-        // 3) Resolver Usuario si viene usuarioId
-        Usuario usuario = null;
-        if (req.getUsuarioId() != null) {
-            usuario = usuarioRepo.findById(req.getUsuarioId())
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Usuario no existe: " + req.getUsuarioId()));
+        // 3) Validar Usuario si viene usuarioId
+        if (req.getUsuarioId() != null && !references.existeUsuario(req.getUsuarioId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Usuario no existe: " + req.getUsuarioId());
+        }
+
+        // 4) Con sesión o usuario la línea vive en el store y se escribe a la base en segundo plano.
+        // Nombre, imagen y precio se copian del catálogo (CarritoProductoSync los mantiene al día)
+        int cantidad = req.getCantidad() != null ? req.getCantidad() : 1;
+        if (CarritoStore.clave(req.getSessionId(), req.getUsuarioId()) != null) {
+            CarritoLinea linea = references.escribir(() -> carritoStore.agregar(new CarritoLinea(null, req.getSessionId(), req.getUsuarioId(), producto.getId(),
+                    producto.getNombre(), producto.getImagen(), Precios.precioFinal(producto), cantidad)));
+            return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(linea));
         }
 
-        // 4) Construir entidad y poblar campos
+        // 5) Línea sin carrito: se guarda directo, protegiendo errores de BD
         CarritoItem ci = new CarritoItem();
         ci.setProducto(producto);
-        if (usuario != null) ci.setUsuario(usuario);
         ci.setSessionId(req.getSessionId());
-        ci.setCantidad(req.getCantidad() != null ? req.getCantidad() : 1);
-        ci.setNombre(req.getNombre());
-        ci.setImagen(req.getImagen());
-        ci.setPrecio(req.getPrecio());
-
-        // 5) Guardar protegiendo errores de BD
+        ci.setCantidad(cantidad);
+        ci.setNombre(producto.getNombre());
+        ci.setImagen(producto.getImagen());
+        ci.setPrecio(Precios.precioFinal(producto));
         try {
             CarritoItem saved = carritoRepo.save(ci);
             return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(saved));
@@ -129,13 +215,10 @@ public class CarritoItemController {
     @PutMapping("/{id}")
     public ResponseEntity<CarritoItemResponse> updateCarritoItem(@PathVariable Long id,
                                                                   @RequestBody CarritoItemRequest req) {
-        return carritoRepo.findById(id)
-                .map(existing -> {
-                    // Actualizar campos permitidos
-                    applyRequestToEntity(req, existing);
-                    CarritoItem saved = carritoRepo.save(existing);
-                    return ResponseEntity.ok(toResponse(saved));
-                })
+        // Producto y usuario se validan antes de tocar el carrito
+        Producto producto = validarReferencias(req);
+        return references.escribir(() -> carritoStore.actualizar(id, linea -> applyRequest(req, linea, producto)))
+                .map(l -> ResponseEntity.ok(toResponse(l)))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -146,12 +229,9 @@ public class CarritoItemController {
     })
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteCarritoItem(@PathVariable Long id) {
-        return carritoRepo.findById(id)
-                .map(existing -> {
-                    carritoRepo.delete(existing);
-                    return ResponseEntity.noContent().build();
-                })
-                .orElse(ResponseEntity.notFound().build());
+        return carritoStore.eliminar(id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
     }
 
     // --- Helpers ---
@@ -172,32 +252,44 @@ public class CarritoItemController {
         );
     }
 
-    private void applyRequestToEntity(CarritoItemRequest req, CarritoItem ci) {
-        // Mantenemos comportamiento previo para PUT/patch parcial
-        if (req.getCantidad() != null) {
-            ci.setCantidad(req.getCantidad());
-        }
-        if (req.getNombre() != null) {
-            ci.setNombre(req.getNombre());
-        }
-        if (req.getImagen() != null) {
-            ci.setImagen(req.getImagen());
-        }
-        if (req.getPrecio() != null) {
-            ci.setPrecio(req.getPrecio());
-        }
-        if (req.getSessionId() != null) {
-            ci.setSessionId(req.getSessionId());
-        }
+    private CarritoItemResponse toResponse(CarritoLinea l) {
+        return new CarritoItemResponse(l.id(), l.productoId(), l.usuarioId(), l.sessionId(),
+                l.cantidad(), l.nombre(), l.precio(), l.imagen());
+    }
+
+    // Devuelve el producto nuevo si la línea cambia de producto
+    private Producto validarReferencias(CarritoItemRequest req) {
+        validarCantidad(req);
+        Producto producto = null;
         if (req.getProductoId() != null) {
-            Producto prod = productoRepo.findById(req.getProductoId())
+            producto = catalogCache.findById(req.getProductoId())
                     .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Producto no existe"));
-            ci.setProducto(prod);
         }
-        if (req.getUsuarioId() != null) {
-            Usuario u = usuarioRepo.findById(req.getUsuarioId())
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Usuario no existe"));
-            ci.setUsuario(u);
+        if (req.getUsuarioId() != null && !references.existeUsuario(req.getUsuarioId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Usuario no existe");
+        }
+        return producto;
+    }
+
+    private static void validarCantidad(CarritoItemRequest req) {
+        if (req.getCantidad() != null && req.getCantidad() <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cantidad debe ser mayor a 0");
+        }
+    }
+
+    private static CarritoLinea applyRequest(CarritoItemRequest req, CarritoLinea l, Producto producto) {
+        // Cambio de producto: la copia de nombre, imagen y precio pasa a ser la del producto nuevo
+        if (producto != null) {
+            l = l.conProducto(producto.getNombre(), producto.getImagen(), Precios.precioFinal(producto));
         }
+        // PUT parcial: nombre, imagen y precio nunca vienen del cliente, son siempre la copia del catálogo
+        return new CarritoLinea(l.id(),
+                req.getSessionId() != null ? req.getSessionId() : l.sessionId(),
+                req.getUsuarioId() != null ? req.getUsuarioId() : l.usuarioId(),
+                req.getProductoId() != null ? req.getProductoId() : l.productoId(),
+                l.nombre(),
+                l.imagen(),
+                l.precio(),
+                req.getCantidad() != null ? req.getCantidad() : l.cantidad());
     }
-}
\ No newline at end of file
+}
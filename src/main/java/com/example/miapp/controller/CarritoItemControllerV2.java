@@ -1,5 +1,6 @@
 package com.example.miapp.controller;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +23,7 @@ import org.springframework.web.bind.annotation.RestController;
 import com.example.miapp.assemblers.CarritoItemAssembler;
 import com.example.miapp.model.CarritoItem;
 import com.example.miapp.repository.CarritoItemRepository;
+import com.example.miapp.service.CarritoStore;
 
 
 @RestController
@@ -33,9 +35,13 @@ public class  CarritoItemControllerV2 {
     
     @Autowired
     private CarritoItemAssembler assembler;
+
+    @Autowired
+    private CarritoStore carritoStore;
     
     @GetMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public CollectionModel<EntityModel<CarritoItem>> CarritoItems() {
+        carritoStore.flush();
         List<EntityModel<CarritoItem>> CarritoItems = CarritoItemRepository.findAll().stream()
                 .map(assembler::toModel)
                 .collect(Collectors.toList());
@@ -47,7 +53,9 @@ public class  CarritoItemControllerV2 {
 
     @PostMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<CarritoItem>> CarritoItem(@RequestBody CarritoItem prod) {
+        carritoStore.flush();
         CarritoItem CarritoItem = CarritoItemRepository.save(prod);
+        carritoStore.desalojar(Set.of(clave(CarritoItem)), List.of());
         return ResponseEntity
                 .created(linkTo(methodOn(CarritoItemControllerV2.class).CarritoItemByCodigo(CarritoItem.getId())).toUri())
                 .body(assembler.toModel(CarritoItem));
@@ -56,6 +64,7 @@ public class  CarritoItemControllerV2 {
 
    @GetMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public EntityModel<CarritoItem> CarritoItemByCodigo(@PathVariable Long codigo) {
+        carritoStore.flush();
         CarritoItem prod = CarritoItemRepository.findById(codigo).get();
         return assembler.toModel(prod);
     }
@@ -64,7 +73,10 @@ public class  CarritoItemControllerV2 {
     @PutMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<CarritoItem>> CarritoItem(@PathVariable Long codigo, @RequestBody CarritoItem prod) {
         prod.setId(codigo);
+        // Escritura directa a la base: se descartan de memoria el carrito anterior y el nuevo de la línea
+        carritoStore.flush();
         CarritoItem CarritoItem = CarritoItemRepository.save(prod);
+        carritoStore.desalojar(Set.of(clave(CarritoItem)), List.of(codigo));
         return ResponseEntity
                 .ok(assembler.toModel(CarritoItem));
     }
@@ -72,8 +84,15 @@ public class  CarritoItemControllerV2 {
 
     @DeleteMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<?> CarritoItem(@PathVariable Long codigo) {
+        carritoStore.flush();
         CarritoItemRepository.deleteById(codigo);
+        carritoStore.desalojar(List.of(), List.of(codigo));
         return ResponseEntity.noContent().build();
     }
+
+    private static String clave(CarritoItem ci) {
+        String clave = CarritoStore.clave(ci.getSessionId(), ci.getUsuario() != null ? ci.getUsuario().getId() : null);
+        return clave != null ? clave : "";
+    }
 }
 
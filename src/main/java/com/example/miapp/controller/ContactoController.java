@@ -2,7 +2,6 @@ package com.example.miapp.controller;
 
 import java.net.URI;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -12,6 +11,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.miapp.dto.ContactoRequest;
@@ -30,7 +30,7 @@ import jakarta.validation.Valid;
 
 @RestController
 @RequestMapping("/api/v1/contacto")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = CursorPagination.NEXT_CURSOR_HEADER)
 @Tag(name = "Contactos", description = "Operaciones para enviar y consultar mensajes de contacto")
 public class ContactoController {
 
@@ -95,17 +95,21 @@ public class ContactoController {
         }).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
-    @Operation(summary = "Listar contactos", description = "Devuelve todos los mensajes de contacto.")
+    @Operation(summary = "Listar contactos", description = "Devuelve los mensajes de contacto paginados por cursor; la página siguiente se indica en X-Next-Cursor.")
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "Lista de contactos",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = ContactoResponse.class)))
     })
     @GetMapping
-    public List<ContactoResponse> listAll() {
-        return contactoRepository.findAll().stream()
-                .map(c -> new ContactoResponse(c.getId(), c.getNombre(), c.getEmail(), c.getMensaje(),
-                        c.getFechaCreacion()))
-                .collect(Collectors.toList());
+    public ResponseEntity<List<ContactoResponse>> listAll(
+            @Parameter(description = "Cursor opaco devuelto en X-Next-Cursor") @RequestParam(required = false) String after,
+            @Parameter(description = "Tamaño de página (máx. " + CursorPagination.MAX_LIMIT + ")") @RequestParam(required = false) Integer limit) {
+        int size = CursorPagination.resolveLimit(limit);
+        List<Contacto> rows = contactoRepository.findByIdGreaterThanOrderByIdAsc(
+                CursorPagination.decodeAfter(after), CursorPagination.probe(size));
+        return CursorPagination.page(rows, size, Contacto::getId,
+                c -> new ContactoResponse(c.getId(), c.getNombre(), c.getEmail(), c.getMensaje(),
+                        c.getFechaCreacion()));
     }
 
     @Operation(summary = "Obtener contacto por id", description = "Obtiene un mensaje de contacto por su identificador.")
@@ -0,0 +1,123 @@
+package com.example.miapp.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Paginación por cursor (keyset) para los listados v1.
+ * El cursor es opaco para el cliente y codifica el último id entregado; la página
+ * siguiente se resuelve como un rango sobre la clave primaria (id > cursor) en vez
+ * de un OFFSET, por lo que cada página cuesta lo mismo sin importar su profundidad.
+ * El cursor de la página siguiente viaja en la cabecera X-Next-Cursor y se omite
+ * cuando no quedan más filas.
+ * Los listados ordenados por fecha usan un cursor compuesto (fecha, id); ver {@link TimeKey}.
+ */
+public final class CursorPagination {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private static final String PREFIX = "id:";
+    private static final String TIME_PREFIX = "ts:";
+
+    /** Última posición entregada en un listado ordenado por (fecha desc, id desc). */
+    public record TimeKey(Instant fecha, long id) { }
+
+    private CursorPagination() { }
+
+    // Devuelve el id a partir del cual listar (0 = primera página)
+    public static long decodeAfter(String after) {
+        if (after == null || after.isBlank()) {
+            return 0L;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+            if (!raw.startsWith(PREFIX)) {
+                throw new IllegalArgumentException(raw);
+            }
+            return Long.parseLong(raw.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor inválido");
+        }
+    }
+
+    public static String encode(long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Devuelve null en la primera página
+    public static TimeKey decodeTimeKey(String after) {
+        if (after == null || after.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+            if (!raw.startsWith(TIME_PREFIX)) {
+                throw new IllegalArgumentException(raw);
+            }
+            String[] parts = raw.substring(TIME_PREFIX.length()).split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException(raw);
+            }
+            Instant fecha = Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            return new TimeKey(fecha, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor inválido");
+        }
+    }
+
+    public static String encode(TimeKey key) {
+        String raw = TIME_PREFIX + key.fecha().getEpochSecond() + ":" + key.fecha().getNano() + ":" + key.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static int resolveLimit(Integer limit) {
+        if (limit == null) return DEFAULT_LIMIT;
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit debe ser mayor a 0");
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    // Se pide una fila extra para saber si existe una página siguiente sin hacer un COUNT
+    public static Limit probe(int limit) {
+        return Limit.of(limit + 1);
+    }
+
+    /**
+     * Recorta las filas obtenidas con {@link #probe(int)} al tamaño de página, las mapea
+     * a DTO y agrega el cursor de la página siguiente cuando corresponde.
+     */
+    public static <T, R> ResponseEntity<List<R>> page(List<T> rows, int limit,
+                                                      Function<T, Long> idOf,
+                                                      Function<T, R> mapper) {
+        return pageBy(rows, limit, row -> encode(idOf.apply(row)), mapper);
+    }
+
+    // Igual que page, pero con un cursor arbitrario (p. ej. {@link #encode(TimeKey)})
+    public static <T, R> ResponseEntity<List<R>> pageBy(List<T> rows, int limit,
+                                                        Function<T, String> cursorOf,
+                                                        Function<T, R> mapper) {
+        boolean hasMore = rows.size() > limit;
+        List<T> pageRows = hasMore ? rows.subList(0, limit) : rows;
+        List<R> body = pageRows.stream().map(mapper).collect(Collectors.toList());
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (hasMore) {
+            builder.header(NEXT_CURSOR_HEADER, cursorOf.apply(pageRows.get(limit - 1)));
+        }
+        return builder.body(body);
+    }
+}
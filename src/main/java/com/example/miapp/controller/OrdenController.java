@@ -1,9 +1,19 @@
 package com.example.miapp.controller;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -12,16 +22,32 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.example.miapp.dto.CheckoutRequest;
+import com.example.miapp.dto.EstadoTransicionRequest;
+import com.example.miapp.dto.OrdenEstadoResponse;
 import com.example.miapp.dto.OrdenRequest;
 import com.example.miapp.dto.OrdenResponse;
+import com.example.miapp.model.EstadoEnriquecimiento;
+import com.example.miapp.model.EstadoOrden;
 import com.example.miapp.model.Orden;
-import com.example.miapp.model.Usuario;
+import com.example.miapp.model.OrdenItem;
+import com.example.miapp.repository.OrdenItemRepository;
 import com.example.miapp.repository.OrdenRepository;
-import com.example.miapp.repository.UsuarioRepository;
+import com.example.miapp.repository.OrdenSpecifications;
+import com.example.miapp.service.CheckoutService;
+import com.example.miapp.service.OrdenChangedEvent;
+import com.example.miapp.service.OrdenEnrichmentPipeline;
+import com.example.miapp.service.OrdenEventStream;
+import com.example.miapp.service.OrdenNumeroGenerator;
+import com.example.miapp.service.ReferenceResolver;
+import com.example.miapp.service.VentasRollupService;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -32,29 +58,114 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 
 @RestController
 @RequestMapping("/api/v1/orden")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = CursorPagination.NEXT_CURSOR_HEADER)
 @Tag(name = "Orden", description = "Operaciones sobre órdenes")
 public class OrdenController {
 
     private final OrdenRepository ordenRepository;
-    private final UsuarioRepository usuarioRepository;
+    private final OrdenItemRepository ordenItemRepository;
+    private final ReferenceResolver references;
+    private final CheckoutService checkoutService;
+    private final OrdenNumeroGenerator numeroGenerator;
+    private final VentasRollupService ventasRollup;
+    private final OrdenEventStream eventStream;
+    private final OrdenEnrichmentPipeline enrichmentPipeline;
+    private final ApplicationEventPublisher events;
+    private final ZoneId zonaBusqueda;
 
-    public OrdenController(OrdenRepository ordenRepository, UsuarioRepository usuarioRepository) {
+    public OrdenController(OrdenRepository ordenRepository, OrdenItemRepository ordenItemRepository,
+                           ReferenceResolver references, CheckoutService checkoutService,
+                           OrdenNumeroGenerator numeroGenerator, VentasRollupService ventasRollup,
+                           OrdenEventStream eventStream, OrdenEnrichmentPipeline enrichmentPipeline,
+                           ApplicationEventPublisher events,
+                           @Value("${orden.busqueda.zona:America/Santiago}") ZoneId zonaBusqueda) {
         this.ordenRepository = ordenRepository;
-        this.usuarioRepository = usuarioRepository;
+        this.ordenItemRepository = ordenItemRepository;
+        this.references = references;
+        this.checkoutService = checkoutService;
+        this.numeroGenerator = numeroGenerator;
+        this.ventasRollup = ventasRollup;
+        this.eventStream = eventStream;
+        this.enrichmentPipeline = enrichmentPipeline;
+        this.events = events;
+        this.zonaBusqueda = zonaBusqueda;
     }
 
     @GetMapping
-    @Operation(summary = "Obtiene una lista de Órdenes", description = "Obtiene un listado de todas las órdenes del sistema")
+    @Operation(summary = "Obtiene una lista de Órdenes", description = "Obtiene un listado paginado por cursor (after/limit) de las órdenes del sistema. "
+            + "Con include_items=true cada orden trae sus items (una consulta adicional por página)")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Operación exitosa",
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = OrdenResponse.class)))
     })
-    public List<OrdenResponse> getAllOrdenes() {
-        return ordenRepository.findAll().stream()
-                .map(this::toResponse)
-                .collect(Collectors.toList());
+    public ResponseEntity<List<OrdenResponse>> getAllOrdenes(@RequestParam(required = false) String after,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(name = "include_items", defaultValue = "false") boolean includeItems) {
+        int size = CursorPagination.resolveLimit(limit);
+        List<Orden> rows = ordenRepository.findByIdGreaterThanOrderByIdAsc(
+                CursorPagination.decodeAfter(after), CursorPagination.probe(size));
+        return pageOrdenes(rows, size, includeItems, orden -> CursorPagination.encode(orden.getId()));
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Busca Órdenes", description = "Filtra por estado, region, comuna, correo y rango de fecha de creación "
+            + "(desde/hasta, fechas ISO inclusivas en la zona orden.busqueda.zona). Resultados de la más reciente a la más antigua, "
+            + "paginados por cursor (after/limit); cada combinación de filtros se resuelve con un índice compuesto")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Operación exitosa",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = OrdenResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Estado, fechas o cursor inválidos")
+    })
+    public ResponseEntity<List<OrdenResponse>> searchOrdenes(@RequestParam(required = false) String estado,
+                                                             @RequestParam(required = false) String region,
+                                                             @RequestParam(required = false) String comuna,
+                                                             @RequestParam(required = false) String correo,
+                                                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+                                                             @RequestParam(required = false) String after,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(name = "include_items", defaultValue = "false") boolean includeItems) {
+        String estadoFiltro = null;
+        if (estado != null && !estado.isBlank()) {
+            estadoFiltro = EstadoOrden.parse(estado)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Estado inválido: " + estado))
+                    .name();
+        }
+        if (desde != null && hasta != null && hasta.isBefore(desde)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "hasta debe ser igual o posterior a desde");
+        }
+        int size = CursorPagination.resolveLimit(limit);
+        CursorPagination.TimeKey cursor = CursorPagination.decodeTimeKey(after);
+
+        List<Orden> rows = ordenRepository.findBy(
+                OrdenSpecifications.busqueda(estadoFiltro, blankToNull(region), blankToNull(comuna), blankToNull(correo),
+                        desde != null ? desde.atStartOfDay(zonaBusqueda).toInstant() : null,
+                        hasta != null ? hasta.plusDays(1).atStartOfDay(zonaBusqueda).toInstant() : null,
+                        cursor != null ? cursor.fecha() : null,
+                        cursor != null ? cursor.id() : null),
+                q -> q.sortBy(Sort.by(Sort.Direction.DESC, "fechaCreacion", "id")).limit(size + 1).all());
+        return pageOrdenes(rows, size, includeItems,
+                orden -> CursorPagination.encode(new CursorPagination.TimeKey(orden.getFechaCreacion(), orden.getId())));
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream de cambios de órdenes (SSE)", description = "Envía un evento creada/actualizada/eliminada cada vez que "
+            + "cambia una orden, en vez de consultar GET /{id} periódicamente. Con orden_id solo llegan los eventos de esa orden. "
+            + "Incluye latidos periódicos; al reconectar con Last-Event-ID se reenvían los eventos recientes que se perdieron")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Stream abierto (text/event-stream)")
+    })
+    public SseEmitter streamOrdenes(@RequestParam(name = "orden_id", required = false) Long ordenId,
+                                    @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+        return eventStream.subscribe(ordenId, lastEventId);
+    }
+
+    @GetMapping("/stream/stats")
+    @Operation(summary = "Estadísticas del stream de órdenes", description = "Suscriptores activos, eventos publicados y descartados por buffers llenos")
+    public ResponseEntity<Map<String, Object>> streamStats() {
+        return ResponseEntity.ok(eventStream.stats());
     }
 
     @GetMapping("/{id}")
@@ -66,21 +177,22 @@ public class OrdenController {
             @ApiResponse(responseCode = "404", description = "Orden no encontrada")
     })
     public ResponseEntity<OrdenResponse> getOrdenById(@PathVariable Long id) {
-        return ordenRepository.findById(id)
-                .map(orden -> ResponseEntity.ok(toResponse(orden)))
+        return ordenRepository.findWithItemsById(id)
+                .map(orden -> ResponseEntity.ok(toResponseWithItems(orden)))
                 .orElse(ResponseEntity.notFound().build());
     }
 
         @GetMapping("/by-number/{numeroOrden}")
         @Operation(summary = "Obtiene una Orden por numeroOrden", description = "Busca una orden usando su número de orden (numeroOrden)")
         public ResponseEntity<OrdenResponse> getOrdenByNumero(@PathVariable String numeroOrden) {
-                return ordenRepository.findByNumeroOrden(numeroOrden)
-                                .map(orden -> ResponseEntity.ok(toResponse(orden)))
+                return ordenRepository.findWithItemsByNumeroOrden(numeroOrden)
+                                .map(orden -> ResponseEntity.ok(toResponseWithItems(orden)))
                                 .orElse(ResponseEntity.notFound().build());
         }
 
     @PostMapping
-    @Operation(summary = "Ingresa una nueva Orden", description = "Ingresa una nueva orden al sistema")
+    @Operation(summary = "Ingresa una nueva Orden", description = "Ingresa una nueva orden al sistema. "
+            + "Si no se envía numero_orden, el servidor genera uno único")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Orden creada exitosamente",
                     content = @Content(mediaType = "application/json",
@@ -90,9 +202,10 @@ public class OrdenController {
     public ResponseEntity<OrdenResponse> createOrden(@RequestBody OrdenRequest req) {
         Orden orden = new Orden();
 
-        // Asignar campos simples
-        orden.setNumeroOrden(req.getNumeroOrden());
-        orden.setEstado(req.getEstado() != null ? req.getEstado() : "PENDIENTE");
+        // Asignar campos simples; el número de orden se genera en el servidor si no viene
+        orden.setNumeroOrden(req.getNumeroOrden() != null && !req.getNumeroOrden().isBlank()
+                ? req.getNumeroOrden() : numeroGenerator.nextNumeroOrden());
+        orden.setEstado(estadoInicial(req.getEstado()).name());
         orden.setTotal(req.getTotal());
         orden.setNombreCompleto(req.getNombreCompleto());
         orden.setApellidos(req.getApellidos());
@@ -105,15 +218,32 @@ public class OrdenController {
 
         // Si se envía usuarioId -> asignar relación Usuario
         if (req.getUsuarioId() != null) {
-            Usuario usuario = usuarioRepository.findById(req.getUsuarioId())
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Usuario no existe"));
-            orden.setUsuario(usuario);
+            orden.setUsuario(references.usuario(req.getUsuarioId()));
         }
 
-        Orden saved = ordenRepository.save(orden);
+        Orden saved = references.escribir(() -> ordenRepository.save(orden));
+        events.publishEvent(OrdenChangedEvent.created(saved));
         return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(saved));
     }
 
+    @PostMapping("/checkout")
+    @Operation(summary = "Checkout del carrito", description = "Convierte el carrito (por session_id o usuario_id) en una orden con sus items "
+            + "en una sola transacción. Precios y total se calculan en el servidor y el carrito queda vacío")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Orden creada exitosamente",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = OrdenResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Solicitud inválida o carrito vacío"),
+            @ApiResponse(responseCode = "409", description = "El carrito cambió durante el checkout")
+    })
+    public ResponseEntity<OrdenResponse> checkout(@RequestBody CheckoutRequest req) {
+        CheckoutService.Result result = references.escribir(() -> checkoutService.checkout(req));
+        events.publishEvent(OrdenChangedEvent.created(result.getOrden()));
+        OrdenResponse resp = toResponse(result.getOrden());
+        resp.setItems(result.getItems().stream().map(this::toItemResponse).toList());
+        return ResponseEntity.status(HttpStatus.CREATED).body(resp);
+    }
+
     @PutMapping("/{id}")
     @Operation(summary = "Actualiza una Orden", description = "Actualiza los datos de una orden especificada por su ID")
     @ApiResponses(value = {
@@ -121,14 +251,22 @@ public class OrdenController {
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = OrdenResponse.class))),
             @ApiResponse(responseCode = "404", description = "Orden no encontrada"),
-            @ApiResponse(responseCode = "400", description = "Solicitud inválida")
+            @ApiResponse(responseCode = "400", description = "Solicitud inválida o transición de estado no permitida"),
+            @ApiResponse(responseCode = "409", description = "La orden fue modificada por otro cliente")
     })
     public ResponseEntity<OrdenResponse> updateOrden(@PathVariable Long id, @RequestBody OrdenRequest req) {
-        return ordenRepository.findById(id)
+        try {
+            // Lectura y escritura dentro del ajuste del rollup (región, comuna o estado pueden cambiar)
+            return references.escribir(() -> ventasRollup.conAjuste(List.of(id), () -> ordenRepository.findById(id)
                 .map(existing -> {
+                    if (req.getVersion() != null && !req.getVersion().equals(existing.getVersion())) {
+                        throw new ResponseStatusException(HttpStatus.CONFLICT, "La orden fue modificada por otro cliente");
+                    }
                     // Actualizar campos simples
                     if (req.getNumeroOrden() != null) existing.setNumeroOrden(req.getNumeroOrden());
-                    if (req.getEstado() != null) existing.setEstado(req.getEstado());
+                    if (req.getEstado() != null && !req.getEstado().equals(existing.getEstado())) {
+                        existing.setEstado(validarTransicion(existing.getEstado(), req.getEstado()).name());
+                    }
                     if (req.getTotal() != null) existing.setTotal(req.getTotal());
                     if (req.getNombreCompleto() != null) existing.setNombreCompleto(req.getNombreCompleto());
                     if (req.getApellidos() != null) existing.setApellidos(req.getApellidos());
@@ -138,18 +276,63 @@ public class OrdenController {
                     if (req.getRegion() != null) existing.setRegion(req.getRegion());
                     if (req.getComuna() != null) existing.setComuna(req.getComuna());
                     if (req.getIndicaciones() != null) existing.setIndicaciones(req.getIndicaciones());
+                    // Cambió la dirección: el clima guardado ya no aplica
+                    if (req.getCalle() != null || req.getRegion() != null || req.getComuna() != null) {
+                        existing.setEnriquecimiento(EstadoEnriquecimiento.PENDIENTE);
+                        existing.setEnriquecimientoIntentos(0);
+                        existing.setEnriquecimientoReintentoEn(null);
+                    }
 
                     // Si se envía usuarioId -> actualizar relación Usuario
                     if (req.getUsuarioId() != null) {
-                        Usuario usuario = usuarioRepository.findById(req.getUsuarioId())
-                                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Usuario no existe"));
-                        existing.setUsuario(usuario);
+                        existing.setUsuario(references.usuario(req.getUsuarioId()));
                     }
 
-                    Orden saved = ordenRepository.save(existing);
+                    return ordenRepository.save(existing);
+                })))
+                .map(saved -> {
+                    events.publishEvent(OrdenChangedEvent.updated(saved));
+                    if (saved.getEnriquecimiento() == EstadoEnriquecimiento.PENDIENTE) {
+                        enrichmentPipeline.submit(saved.getId());
+                    }
                     return ResponseEntity.ok(toResponse(saved));
                 })
                 .orElse(ResponseEntity.notFound().build());
+        } catch (ObjectOptimisticLockingFailureException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "La orden fue modificada por otro cliente", e);
+        }
+    }
+
+    @PostMapping("/{id}/transicion")
+    @Operation(summary = "Cambia el estado de una Orden", description = "Aplica la transición desde -> hacia con un único UPDATE condicional "
+            + "(id, estado y versión), sin leer la orden antes. Si la orden ya no está en 'desde' o su versión cambió, responde 409")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Estado actualizado",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = OrdenEstadoResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Estado desconocido o transición no permitida"),
+            @ApiResponse(responseCode = "404", description = "Orden no encontrada"),
+            @ApiResponse(responseCode = "409", description = "La orden cambió; recargar y reintentar")
+    })
+    public ResponseEntity<OrdenEstadoResponse> transicionEstado(@PathVariable Long id, @RequestBody EstadoTransicionRequest req) {
+        EstadoOrden desde = EstadoOrden.parse(req.getDesde())
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Estado 'desde' inválido"));
+        EstadoOrden hacia = validarTransicion(desde.name(), req.getHacia());
+
+        // Cancelar descuenta la orden del rollup de ventas en la misma transacción
+        int updated = (hacia == EstadoOrden.CANCELADA)
+                ? ventasRollup.conAjuste(List.of(id), () -> ordenRepository.updateEstado(id, desde.name(), hacia.name(), req.getVersion()))
+                : ordenRepository.updateEstado(id, desde.name(), hacia.name(), req.getVersion());
+        if (updated == 0) {
+            // Solo en el caso de fallo se consulta, para distinguir 404 de 409
+            if (!ordenRepository.existsById(id)) {
+                return ResponseEntity.notFound().build();
+            }
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "La orden ya no está en estado " + desde + " o su versión cambió");
+        }
+        Long nuevaVersion = (req.getVersion() != null) ? req.getVersion() + 1 : null;
+        events.publishEvent(OrdenChangedEvent.estadoChanged(id, hacia.name(), nuevaVersion));
+        return ResponseEntity.ok(new OrdenEstadoResponse(id, hacia.name(), nuevaVersion));
     }
 
     @DeleteMapping("/{id}")
@@ -159,19 +342,64 @@ public class OrdenController {
             @ApiResponse(responseCode = "404", description = "Orden no encontrada")
     })
     public ResponseEntity<?> deleteOrden(@PathVariable Long id) {
-        return ordenRepository.findById(id)
+        ResponseEntity<?> resp = ventasRollup.conAjuste(List.of(id), () -> ordenRepository.findById(id)
                 .map(existing -> {
                     ordenRepository.delete(existing);
                     return ResponseEntity.noContent().build();
                 })
-                .orElse(ResponseEntity.notFound().build());
+                .orElse(ResponseEntity.notFound().build()));
+        if (HttpStatus.NO_CONTENT.equals(resp.getStatusCode())) {
+            events.publishEvent(OrdenChangedEvent.deleted(id));
+        }
+        return resp;
     }
 
     // --- Helpers ---
 
+    private ResponseEntity<List<OrdenResponse>> pageOrdenes(List<Orden> rows, int size, boolean includeItems,
+                                                            Function<Orden, String> cursorOf) {
+        if (!includeItems || rows.isEmpty()) {
+            return CursorPagination.pageBy(rows, size, cursorOf, this::toResponse);
+        }
+        // Un solo IN (...) para los items de toda la página, agrupados por orden
+        Map<Long, List<OrdenResponse.OrdenItemResponse>> itemsByOrden = ordenItemRepository
+                .findByOrdenIdIn(rows.stream().map(Orden::getId).toList()).stream()
+                .collect(Collectors.groupingBy(oi -> oi.getOrden().getId(),
+                        Collectors.mapping(this::toItemResponse, Collectors.toList())));
+        return CursorPagination.pageBy(rows, size, cursorOf, orden -> {
+            OrdenResponse resp = toResponse(orden);
+            resp.setItems(itemsByOrden.getOrDefault(orden.getId(), List.of()));
+            return resp;
+        });
+    }
+
+    private static String blankToNull(String value) {
+        return (value == null || value.isBlank()) ? null : value.trim();
+    }
+
+    // Una orden siempre nace PENDIENTE; los demás estados se alcanzan con transiciones
+    static EstadoOrden estadoInicial(String estado) {
+        return EstadoOrden.inicial(estado)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Estado inicial inválido: " + estado + " (una orden nueva solo puede crearse " + EstadoOrden.PENDIENTE + ")"));
+    }
+
+    // Estados heredados que no están en EstadoOrden pueden pasar a cualquier estado válido
+    static EstadoOrden validarTransicion(String actual, String nuevo) {
+        EstadoOrden hacia = EstadoOrden.parse(nuevo)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Estado inválido: " + nuevo));
+        EstadoOrden.parse(actual).ifPresent(desde -> {
+            if (!desde.puedePasarA(hacia)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Transición no permitida: " + desde + " -> " + hacia + " (permitidas: " + desde.getSiguientes() + ")");
+            }
+        });
+        return hacia;
+    }
+
     private OrdenResponse toResponse(Orden orden) {
         Long usuarioId = (orden.getUsuario() != null) ? orden.getUsuario().getId() : null;
-        return new OrdenResponse(
+        OrdenResponse resp = new OrdenResponse(
                 orden.getId(),
                 usuarioId,
                 orden.getNumeroOrden(),
@@ -186,5 +414,28 @@ public class OrdenController {
                 orden.getComuna(),
                 orden.getIndicaciones()
         );
+        resp.setVersion(orden.getVersion());
+        resp.setFechaCreacion(orden.getFechaCreacion());
+        return resp;
+    }
+
+    // Solo para órdenes cargadas con sus items (findWithItems...), si no provoca una consulta por orden
+    private OrdenResponse toResponseWithItems(Orden orden) {
+        OrdenResponse resp = toResponse(orden);
+        List<OrdenItem> items = (orden.getItems() != null) ? orden.getItems() : List.of();
+        resp.setItems(items.stream().map(this::toItemResponse).toList());
+        return resp;
+    }
+
+    private OrdenResponse.OrdenItemResponse toItemResponse(OrdenItem oi) {
+        Long productoId = (oi.getProducto() != null) ? oi.getProducto().getId() : null;
+        return new OrdenResponse.OrdenItemResponse(
+                oi.getId(),
+                productoId,
+                oi.getNombre(),
+                oi.getCantidad(),
+                oi.getPrecioUnitario(),
+                oi.getSubtotal()
+        );
     }
 }
\ No newline at end of file
@@ -3,12 +3,15 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.MediaTypes;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,10 +21,14 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import com.example.miapp.assemblers.OrdenAssembler;
 import com.example.miapp.model.Orden;
 import com.example.miapp.repository.OrdenRepository;
+import com.example.miapp.service.OrdenChangedEvent;
+import com.example.miapp.service.OrdenEnrichmentPipeline;
+import com.example.miapp.service.VentasRollupService;
 
 
 @RestController
@@ -33,6 +40,15 @@ public class  OrdenControllerV2 {
     
     @Autowired
     private OrdenAssembler assembler;
+
+    @Autowired
+    private VentasRollupService ventasRollup;
+
+    @Autowired
+    private ApplicationEventPublisher events;
+
+    @Autowired
+    private OrdenEnrichmentPipeline enrichmentPipeline;
     
     @GetMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public CollectionModel<EntityModel<Orden>> getAllOrdens() {
@@ -47,7 +63,10 @@ public class  OrdenControllerV2 {
 
     @PostMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<Orden>> createOrden(@RequestBody Orden prod) {
-        Orden newOrden = ordenRepository.save(prod);
+        prod.setEstado(OrdenController.estadoInicial(prod.getEstado()).name());
+        // La orden puede traer items (cascade): se suma al rollup de ventas al crearla
+        Orden newOrden = ventasRollup.registrarNueva(() -> ordenRepository.save(prod), Orden::getId);
+        events.publishEvent(OrdenChangedEvent.created(newOrden));
         return ResponseEntity
                 .created(linkTo(methodOn(OrdenControllerV2.class).getOrdenByCodigo(newOrden.getId())).toUri())
                 .body(assembler.toModel(newOrden));
@@ -64,15 +83,42 @@ public class  OrdenControllerV2 {
     @PutMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<Orden>> updateOrden(@PathVariable Long codigo, @RequestBody Orden prod) {
         prod.setId(codigo);
-        Orden updatedOrden = ordenRepository.save(prod);
-        return ResponseEntity
-                .ok(assembler.toModel(updatedOrden));
+        try {
+            Orden updatedOrden = ventasRollup.conAjuste(List.of(codigo), () -> {
+                // conAjuste ya tomó el lock de la fila: nadie la cambia entre esta lectura y el save
+                Orden actual = ordenRepository.findById(codigo)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Orden no encontrada"));
+                // Con versión debe coincidir con la fila; sin versión no hay chequeo, igual que el UPDATE condicional de v1
+                if (prod.getVersion() != null && !prod.getVersion().equals(actual.getVersion())) {
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "La orden fue modificada por otro cliente");
+                }
+                // El estado solo cambia por una transición permitida; sin estado se conserva el actual
+                if (prod.getEstado() == null) {
+                    prod.setEstado(actual.getEstado());
+                } else if (!prod.getEstado().equals(actual.getEstado())) {
+                    prod.setEstado(OrdenController.validarTransicion(actual.getEstado(), prod.getEstado()).name());
+                }
+                prod.setVersion(actual.getVersion());
+                return ordenRepository.save(prod);
+            });
+            events.publishEvent(OrdenChangedEvent.updated(updatedOrden));
+            // Reemplazo completo: el body no trae el clima, se vuelve a calcular
+            enrichmentPipeline.submit(updatedOrden.getId());
+            return ResponseEntity
+                    .ok(assembler.toModel(updatedOrden));
+        } catch (ObjectOptimisticLockingFailureException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "La orden fue modificada por otro cliente", e);
+        }
     }
 
 
     @DeleteMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<?> deleteOrden(@PathVariable Long codigo) {
-        ordenRepository.deleteById(codigo);
+        ventasRollup.conAjuste(List.of(codigo), () -> {
+            ordenRepository.deleteById(codigo);
+            return null;
+        });
+        events.publishEvent(OrdenChangedEvent.deleted(codigo));
         return ResponseEntity.noContent().build();
     }
 }
@@ -1,7 +1,7 @@
 package com.example.miapp.controller;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -13,17 +13,16 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.example.miapp.dto.OrdenItemRequest;
 import com.example.miapp.dto.OrdenItemResponse;
-import com.example.miapp.model.Orden;
 import com.example.miapp.model.OrdenItem;
-import com.example.miapp.model.Producto;
 import com.example.miapp.repository.OrdenItemRepository;
-import com.example.miapp.repository.OrdenRepository;
-import com.example.miapp.repository.ProductoRepository;
+import com.example.miapp.service.ReferenceResolver;
+import com.example.miapp.service.VentasRollupService;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -34,33 +33,35 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 
 @RestController
 @RequestMapping("/api/v1/orden_item")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = CursorPagination.NEXT_CURSOR_HEADER)
 @Tag(name = "OrdenItem", description = "Operaciones sobre items de órdenes")
 public class OrdenItemController {
 
     private final OrdenItemRepository ordenItemRepository;
-    private final OrdenRepository ordenRepository;
-    private final ProductoRepository productoRepository;
+    private final ReferenceResolver references;
+    private final VentasRollupService ventasRollup;
 
     public OrdenItemController(OrdenItemRepository ordenItemRepository,
-                               OrdenRepository ordenRepository,
-                               ProductoRepository productoRepository) {
+                               ReferenceResolver references,
+                               VentasRollupService ventasRollup) {
         this.ordenItemRepository = ordenItemRepository;
-        this.ordenRepository = ordenRepository;
-        this.productoRepository = productoRepository;
+        this.references = references;
+        this.ventasRollup = ventasRollup;
     }
 
     @GetMapping
-    @Operation(summary = "Obtiene una lista de OrdenItems", description = "Obtiene un listado de los OrdenItems del sistema")
+    @Operation(summary = "Obtiene una lista de OrdenItems", description = "Obtiene un listado paginado por cursor (after/limit) de los OrdenItems del sistema")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Operación exitosa",
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = OrdenItemResponse.class)))
     })
-    public List<OrdenItemResponse> getAllOrdenItems() {
-        return ordenItemRepository.findAll().stream()
-                .map(this::toResponse)
-                .collect(Collectors.toList());
+    public ResponseEntity<List<OrdenItemResponse>> getAllOrdenItems(@RequestParam(required = false) String after,
+                                                                    @RequestParam(required = false) Integer limit) {
+        int size = CursorPagination.resolveLimit(limit);
+        List<OrdenItem> rows = ordenItemRepository.findByIdGreaterThanOrderByIdAsc(
+                CursorPagination.decodeAfter(after), CursorPagination.probe(size));
+        return CursorPagination.page(rows, size, OrdenItem::getId, this::toResponse);
     }
 
     @GetMapping("/{id}")
@@ -96,23 +97,19 @@ public class OrdenItemController {
 
         // Si se envía ordenId -> asignar relación Orden
         if (req.getOrdenId() != null) {
-            Orden orden = ordenRepository.findById(req.getOrdenId())
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Orden no existe"));
-            oi.setOrden(orden);
+            oi.setOrden(references.orden(req.getOrdenId()));
         } else {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ordenId es requerido");
         }
 
         // Si se envía productoId -> asignar relación Producto
         if (req.getProductoId() != null) {
-            Producto producto = productoRepository.findById(req.getProductoId())
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Producto no existe"));
-            oi.setProducto(producto);
+            oi.setProducto(references.producto(req.getProductoId()));
         } else {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "productoId es requerido");
         }
 
-        OrdenItem saved = ordenItemRepository.save(oi);
+        OrdenItem saved = references.escribir(() -> ventasRollup.conAjuste(List.of(req.getOrdenId()), () -> ordenItemRepository.save(oi)));
         return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(saved));
     }
 
@@ -126,7 +123,9 @@ public class OrdenItemController {
             @ApiResponse(responseCode = "400", description = "Solicitud inválida")
     })
     public ResponseEntity<OrdenItemResponse> updateOrdenItem(@PathVariable Long id, @RequestBody OrdenItemRequest req) {
-        return ordenItemRepository.findById(id)
+        // El item puede cambiar de orden: se ajusta el rollup de ambas
+        Long ordenAnterior = ordenItemRepository.findById(id).map(oi -> oi.getOrden().getId()).orElse(null);
+        return references.escribir(() -> ventasRollup.conAjuste(Arrays.asList(ordenAnterior, req.getOrdenId()), () -> ordenItemRepository.findById(id)
                 .map(existing -> {
                     // Actualizar campos simples
                     if (req.getNombre() != null) existing.setNombre(req.getNombre());
@@ -136,22 +135,20 @@ public class OrdenItemController {
 
                     // Si se envía ordenId -> actualizar relación Orden
                     if (req.getOrdenId() != null) {
-                        Orden orden = ordenRepository.findById(req.getOrdenId())
-                                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Orden no existe"));
-                        existing.setOrden(orden);
+                        existing.setOrden(references.orden(req.getOrdenId()));
                     }
 
                     // Si se envía productoId -> actualizar relación Producto
                     if (req.getProductoId() != null) {
-                        Producto producto = productoRepository.findById(req.getProductoId())
-                                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Producto no existe"));
-                        existing.setProducto(producto);
+                        existing.setProducto(references.producto(req.getProductoId()));
+                        // VentasRollupService copia la del producto nuevo
+                        existing.setCategoria(null);
                     }
 
                     OrdenItem saved = ordenItemRepository.save(existing);
                     return ResponseEntity.ok(toResponse(saved));
                 })
-                .orElse(ResponseEntity.notFound().build());
+                .orElse(ResponseEntity.notFound().build())));
     }
 
     @DeleteMapping("/{id}")
@@ -162,10 +159,10 @@ public class OrdenItemController {
     })
     public ResponseEntity<?> deleteOrdenItem(@PathVariable Long id) {
         return ordenItemRepository.findById(id)
-                .map(existing -> {
+                .map(existing -> ventasRollup.conAjuste(List.of(existing.getOrden().getId()), () -> {
                     ordenItemRepository.delete(existing);
                     return ResponseEntity.noContent().build();
-                })
+                }))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -1,4 +1,5 @@
 package com.example.miapp.controller;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -22,6 +23,7 @@ import org.springframework.web.bind.annotation.RestController;
 import com.example.miapp.assemblers.OrdenItemAssembler;
 import com.example.miapp.model.OrdenItem;
 import com.example.miapp.repository.OrdenItemRepository;
+import com.example.miapp.service.VentasRollupService;
 
 
 @RestController
@@ -33,6 +35,9 @@ public class  OrdenItemControllerV2 {
     
     @Autowired
     private OrdenItemAssembler assembler;
+
+    @Autowired
+    private VentasRollupService ventasRollup;
     
     @GetMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public CollectionModel<EntityModel<OrdenItem>> getAllOrdenItems() {
@@ -47,7 +52,7 @@ public class  OrdenItemControllerV2 {
 
     @PostMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<OrdenItem>> createOrdenItem(@RequestBody OrdenItem prod) {
-        OrdenItem newOrdenItem = ordenItemRepository.save(prod);
+        OrdenItem newOrdenItem = ventasRollup.conAjuste(ordenesAfectadas(null, prod), () -> ordenItemRepository.save(prod));
         return ResponseEntity
                 .created(linkTo(methodOn(OrdenItemControllerV2.class).getOrdenItemByCodigo(newOrdenItem.getId())).toUri())
                 .body(assembler.toModel(newOrdenItem));
@@ -64,7 +69,7 @@ public class  OrdenItemControllerV2 {
     @PutMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<OrdenItem>> updateOrdenItem(@PathVariable Long codigo, @RequestBody OrdenItem prod) {
         prod.setId(codigo);
-        OrdenItem updatedOrdenItem = ordenItemRepository.save(prod);
+        OrdenItem updatedOrdenItem = ventasRollup.conAjuste(ordenesAfectadas(codigo, prod), () -> ordenItemRepository.save(prod));
         return ResponseEntity
                 .ok(assembler.toModel(updatedOrdenItem));
     }
@@ -72,8 +77,23 @@ public class  OrdenItemControllerV2 {
 
     @DeleteMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<?> deleteOrdenItem(@PathVariable Long codigo) {
-        ordenItemRepository.deleteById(codigo);
+        ventasRollup.conAjuste(ordenesAfectadas(codigo, null), () -> {
+            ordenItemRepository.deleteById(codigo);
+            return null;
+        });
         return ResponseEntity.noContent().build();
     }
+
+    // Orden actual del item (si existe) y la orden del body (si viene), para ajustar el rollup de ventas
+    private List<Long> ordenesAfectadas(Long codigo, OrdenItem body) {
+        List<Long> ids = new ArrayList<>(2);
+        if (codigo != null) {
+            ordenItemRepository.findById(codigo).ifPresent(actual -> ids.add(actual.getOrden().getId()));
+        }
+        if (body != null && body.getOrden() != null) {
+            ids.add(body.getOrden().getId());
+        }
+        return ids;
+    }
 }
 
@@ -1,7 +1,11 @@
 package com.example.miapp.controller;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,10 +14,17 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.miapp.dto.ProductoFilterResponse;
 import com.example.miapp.model.Producto;
 import com.example.miapp.repository.ProductoRepository;
+import com.example.miapp.service.CacheStats;
+import com.example.miapp.service.ProductoCatalogCache;
+import com.example.miapp.service.ProductoChangedEvent;
+import com.example.miapp.service.ProductoFacetIndex;
+import com.example.miapp.service.ProductoSearchIndex;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -23,25 +34,84 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
 @RestController
 @RequestMapping("/api/v1/producto")
-@CrossOrigin(origins = "*") // Permite peticiones desde frontend
+@CrossOrigin(origins = "*", exposedHeaders = CursorPagination.NEXT_CURSOR_HEADER) // Permite peticiones desde frontend
 public class ProductoController {
 
     private final ProductoRepository productoRepository;
+    private final ProductoCatalogCache catalogCache;
+    private final ProductoSearchIndex searchIndex;
+    private final ProductoFacetIndex facetIndex;
+    private final ApplicationEventPublisher events;
 
-    public ProductoController(ProductoRepository productoRepository) {
+    public ProductoController(ProductoRepository productoRepository,
+                              ProductoCatalogCache catalogCache,
+                              ProductoSearchIndex searchIndex,
+                              ProductoFacetIndex facetIndex,
+                              ApplicationEventPublisher events) {
         this.productoRepository = productoRepository;
+        this.catalogCache = catalogCache;
+        this.searchIndex = searchIndex;
+        this.facetIndex = facetIndex;
+        this.events = events;
     }
 
-    // Obtener todos los productos
+    // Obtener productos paginados por cursor
     @GetMapping
-    @Operation(summary = "Obtiene una lista de productos", description = "Obtiene un listado de los productos del sistema")
+    @Operation(summary = "Obtiene una lista de productos", description = "Obtiene un listado paginado de los productos del sistema. "
+            + "El cursor de la página siguiente se entrega en la cabecera X-Next-Cursor y se envía de vuelta en 'after'")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Operación exitosa",
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = Producto.class)))
     })
-    public List<Producto> getAllproductos() {
-        return productoRepository.findAll();
+    public ResponseEntity<List<Producto>> getAllproductos(@RequestParam(required = false) String after,
+                                                          @RequestParam(required = false) Integer limit) {
+        int size = CursorPagination.resolveLimit(limit);
+        List<Producto> rows = catalogCache.findPage(
+                CursorPagination.decodeAfter(after), CursorPagination.probe(size));
+        return CursorPagination.page(rows, size, Producto::getId, p -> p);
+    }
+
+    // Búsqueda de texto sobre el índice en memoria
+    @GetMapping("/search")
+    @Operation(summary = "Busca productos por texto", description = "Busca en nombre, categoría y descripción, sin distinguir tildes. "
+            + "La última palabra puede estar incompleta (búsqueda por prefijo). Resultados ordenados por relevancia")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Operación exitosa",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = Producto.class)))
+    })
+    public List<Producto> searchProductos(@RequestParam("q") String q,
+                                          @RequestParam(required = false) Integer limit) {
+        int size = (limit == null) ? 20 : Math.max(1, Math.min(limit, 100));
+        return searchIndex.search(q, size);
+    }
+
+    // Filtro por facetas con conteos por valor
+    @GetMapping("/filter")
+    @Operation(summary = "Filtra productos por facetas", description = "Filtra por categoría, oferta, rango de precio y disponibilidad. "
+            + "Devuelve la página de productos y la cantidad de productos por valor de cada faceta en una sola respuesta")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Operación exitosa",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ProductoFilterResponse.class)))
+    })
+    public ProductoFilterResponse filterProductos(@RequestParam(required = false) List<String> categoria,
+                                                  @RequestParam(required = false) Boolean oferta,
+                                                  @RequestParam(name = "rango_precio", required = false) List<String> rangoPrecio,
+                                                  @RequestParam(required = false) Boolean disponible,
+                                                  @RequestParam(required = false) String after,
+                                                  @RequestParam(required = false) Integer limit) {
+        int size = CursorPagination.resolveLimit(limit);
+        ProductoFacetIndex.Filter filter = new ProductoFacetIndex.Filter(
+                categoria != null ? new HashSet<>(categoria) : null,
+                oferta,
+                rangoPrecio != null ? new HashSet<>(rangoPrecio) : null,
+                disponible);
+        ProductoFacetIndex.Result result = facetIndex.filter(filter, CursorPagination.decodeAfter(after), size);
+        List<Producto> items = result.getItems();
+        String nextCursor = result.isHasMore() ? CursorPagination.encode(items.get(items.size() - 1).getId()) : null;
+        return new ProductoFilterResponse(items, nextCursor, result.getTotal(), result.getFacets());
     }
 
     // Obtener producto por ID
@@ -54,7 +124,7 @@ public class ProductoController {
             @ApiResponse(responseCode = "404", description = "Producto no encontrado")
     })
     public Producto getproductoById(@PathVariable Long id) {
-        return productoRepository.findById(id)
+        return catalogCache.findById(id)
                 .orElseThrow(() -> new RuntimeException("producto not found"));
     }
 
@@ -67,7 +137,9 @@ public class ProductoController {
                             schema = @Schema(implementation = Producto.class)))
     })
     public Producto createproducto(@RequestBody Producto producto) {
-        return productoRepository.save(producto);
+        Producto saved = productoRepository.save(producto);
+        events.publishEvent(ProductoChangedEvent.saved(saved));
+        return saved;
     }
 
     // Actualizar producto existente
@@ -90,7 +162,9 @@ public class ProductoController {
         producto.setNombre(productoDetails.getNombre());
         producto.setPrecio(productoDetails.getPrecio());
         producto.setOferta(productoDetails.isOferta());
-        return productoRepository.save(producto);
+        Producto saved = productoRepository.save(producto);
+        events.publishEvent(ProductoChangedEvent.saved(saved));
+        return saved;
     }
 
     // Eliminar producto
@@ -102,5 +176,13 @@ public class ProductoController {
     })
     public void deleteproducto(@PathVariable Long id) {
         productoRepository.deleteById(id);
+        events.publishEvent(ProductoChangedEvent.deleted(id));
+    }
+
+    // Contadores de la caché del catálogo, para dimensionarla
+    @GetMapping("/cache-stats")
+    @Operation(summary = "Estadísticas de la caché del catálogo", description = "Aciertos, fallos y desalojos de la caché de productos")
+    public Map<String, CacheStats> cacheStats() {
+        return catalogCache.stats();
     }
 }
@@ -3,6 +3,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.MediaTypes;
@@ -22,6 +23,8 @@ import org.springframework.web.bind.annotation.RestController;
 import com.example.miapp.assemblers.ProductoModelAssembler;
 import com.example.miapp.model.Producto;
 import com.example.miapp.repository.ProductoRepository;
+import com.example.miapp.service.ProductoCatalogCache;
+import com.example.miapp.service.ProductoChangedEvent;
 
 
 @RestController
@@ -33,10 +36,16 @@ public class  ProductoControllerV2 {
     
     @Autowired
     private ProductoModelAssembler assembler;
+
+    @Autowired
+    private ProductoCatalogCache catalogCache;
+
+    @Autowired
+    private ApplicationEventPublisher events;
     
     @GetMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public CollectionModel<EntityModel<Producto>> getAllProductos() {
-        List<EntityModel<Producto>> productos = productoService.findAll().stream()
+        List<EntityModel<Producto>> productos = catalogCache.findAll().stream()
                 .map(assembler::toModel)
                 .collect(Collectors.toList());
 
@@ -48,6 +57,7 @@ public class  ProductoControllerV2 {
     @PostMapping(produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<EntityModel<Producto>> createProducto(@RequestBody Producto prod) {
         Producto newProducto = productoService.save(prod);
+        events.publishEvent(ProductoChangedEvent.saved(newProducto));
         return ResponseEntity
                 .created(linkTo(methodOn(ProductoControllerV2.class).getProductoByCodigo(newProducto.getId())).toUri())
                 .body(assembler.toModel(newProducto));
@@ -56,7 +66,7 @@ public class  ProductoControllerV2 {
 
    @GetMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public EntityModel<Producto> getProductoByCodigo(@PathVariable Long codigo) {
-        Producto prod = productoService.findById(codigo).get();
+        Producto prod = catalogCache.findById(codigo).get();
         return assembler.toModel(prod);
     }
     
@@ -65,6 +75,7 @@ public class  ProductoControllerV2 {
     public ResponseEntity<EntityModel<Producto>> updateProducto(@PathVariable Long codigo, @RequestBody Producto prod) {
         prod.setId(codigo);
         Producto updatedProducto = productoService.save(prod);
+        events.publishEvent(ProductoChangedEvent.saved(updatedProducto));
         return ResponseEntity
                 .ok(assembler.toModel(updatedProducto));
     }
@@ -73,6 +84,7 @@ public class  ProductoControllerV2 {
     @DeleteMapping(value = "/{codigo}", produces = MediaTypes.HAL_JSON_VALUE)
     public ResponseEntity<?> deleteProducto(@PathVariable Long codigo) {
         productoService.deleteById(codigo);
+        events.publishEvent(ProductoChangedEvent.deleted(codigo));
         return ResponseEntity.noContent().build();
     }
 }
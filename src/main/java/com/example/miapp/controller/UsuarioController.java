@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.miapp.model.Usuario;
@@ -27,25 +28,28 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 
 @RestController
 @RequestMapping("/api/v1/usuarios")
-@CrossOrigin(origins = "*") // Permite peticiones desde frontend
+@CrossOrigin(origins = "*", exposedHeaders = CursorPagination.NEXT_CURSOR_HEADER) // Permite peticiones desde frontend
 @Tag(name = "Usuarios", description = "Operaciones relacionadas a los usuarios del sistema")
 public class UsuarioController {
     @Autowired
     private UsuarioRepository usuarioRepository;
     
     @GetMapping
-    @Operation(summary = "Obtiene a los usuarios", description = "Obtiene una lista de todos los usuarios")
+    @Operation(summary = "Obtiene a los usuarios", description = "Obtiene una lista paginada por cursor (after/limit) de los usuarios")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Operación exitosa",
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = Usuario.class)))
     })
-    public ResponseEntity<List<Usuario>> listar() {
-        List<Usuario> usuarios = usuarioRepository.findAll();
+    public ResponseEntity<List<Usuario>> listar(@RequestParam(required = false) String after,
+                                                @RequestParam(required = false) Integer limit) {
+        int size = CursorPagination.resolveLimit(limit);
+        List<Usuario> usuarios = usuarioRepository.findByIdGreaterThanOrderByIdAsc(
+                CursorPagination.decodeAfter(after), CursorPagination.probe(size));
         if (usuarios.isEmpty()){
             return ResponseEntity.noContent().build();        
         }
-        return ResponseEntity.ok(usuarios);
+        return CursorPagination.page(usuarios, size, Usuario::getId, u -> u);
     }
     
     @PostMapping
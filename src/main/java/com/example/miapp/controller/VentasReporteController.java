@@ -0,0 +1,103 @@
+package com.example.miapp.controller;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.miapp.dto.VentasReporteResponse;
+import com.example.miapp.service.VentasRollupService;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/api/v1/reportes/ventas")
+@CrossOrigin(origins = "*")
+@Tag(name = "Reportes", description = "Reportes de ventas sobre el rollup diario")
+public class VentasReporteController {
+
+    private static final int DIAS_POR_DEFECTO = 30;
+    private static final int MAX_DIAS = 366;
+
+    private final VentasRollupService ventasRollup;
+    private final ZoneId zona;
+
+    public VentasReporteController(VentasRollupService ventasRollup,
+                                   @Value("${ventas.rollup.zona:America/Santiago}") ZoneId zona) {
+        this.ventasRollup = ventasRollup;
+        this.zona = zona;
+    }
+
+    @GetMapping
+    @Operation(summary = "Ventas por día, región, comuna y categoría", description = "Lee solo del rollup venta_diaria. "
+            + "desde/hasta son fechas ISO inclusivas (por defecto los últimos 30 días, máximo 366); "
+            + "agrupar es una lista de dia, region, comuna, categoria (por defecto dia)")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Operación exitosa",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = VentasReporteResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Rango de fechas o agrupación inválidos")
+    })
+    public ResponseEntity<VentasReporteResponse> getVentas(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+                                                           @RequestParam(required = false) String region,
+                                                           @RequestParam(required = false) String comuna,
+                                                           @RequestParam(required = false) String categoria,
+                                                           @RequestParam(defaultValue = "dia") String agrupar) {
+        LocalDate fin = (hasta != null) ? hasta : LocalDate.now(zona);
+        LocalDate inicio = (desde != null) ? desde : fin.minusDays(DIAS_POR_DEFECTO - 1);
+        if (fin.isBefore(inicio)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "hasta debe ser igual o posterior a desde");
+        }
+        if (ChronoUnit.DAYS.between(inicio, fin) >= MAX_DIAS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "El rango no puede superar " + MAX_DIAS + " días");
+        }
+        List<String> dimensiones = Arrays.stream(agrupar.split(","))
+                .map(s -> s.trim().toLowerCase(Locale.ROOT))
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .toList();
+        for (String d : dimensiones) {
+            if (!VentasRollupService.DIMENSIONES.contains(d)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Dimensión inválida: " + d + " (permitidas: " + VentasRollupService.DIMENSIONES + ")");
+            }
+        }
+        return ResponseEntity.ok(ventasRollup.reporte(inicio, fin, blankToNull(region), blankToNull(comuna),
+                blankToNull(categoria), dimensiones));
+    }
+
+    @PostMapping("/reconstruir")
+    @Operation(summary = "Reconstruye el rollup de ventas", description = "Recalcula venta_diaria desde orden y orden_items. "
+            + "Solo para la carga inicial o reparaciones; bloquea las escrituras de órdenes hasta terminar")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Rollup reconstruido")
+    })
+    public ResponseEntity<Map<String, Integer>> reconstruir() {
+        return ResponseEntity.ok(Map.of("filas", ventasRollup.reconstruir()));
+    }
+
+    private static String blankToNull(String value) {
+        return (value == null || value.isBlank()) ? null : value.trim();
+    }
+}
@@ -1,9 +1,13 @@
 package com.example.miapp.controller;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -11,9 +15,10 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.example.miapp.model.Orden;
+import com.example.miapp.model.EstadoEnriquecimiento;
 import com.example.miapp.repository.OrdenRepository;
-import com.example.miapp.service.WeatherResult;
+import com.example.miapp.service.GeocodingService;
+import com.example.miapp.service.OrdenEnrichmentPipeline;
 import com.example.miapp.service.WeatherService;
 
 @RestController
@@ -22,49 +27,73 @@ import com.example.miapp.service.WeatherService;
 public class WeatherController {
 
     private final OrdenRepository ordenRepository;
+    private final OrdenEnrichmentPipeline enrichmentPipeline;
+    private final GeocodingService geocodingService;
     private final WeatherService weatherService;
-    private final double precipitationThreshold;
+    private final ZoneId zona;
 
     public WeatherController(OrdenRepository ordenRepository,
+                             OrdenEnrichmentPipeline enrichmentPipeline,
+                             GeocodingService geocodingService,
                              WeatherService weatherService,
-                             @org.springframework.beans.factory.annotation.Value("${delivery.precipitation.threshold:0.5}") double precipitationThreshold) {
+                             @Value("${orden.busqueda.zona:America/Santiago}") ZoneId zona) {
         this.ordenRepository = ordenRepository;
+        this.enrichmentPipeline = enrichmentPipeline;
+        this.geocodingService = geocodingService;
         this.weatherService = weatherService;
-        this.precipitationThreshold = precipitationThreshold;
+        this.zona = zona;
     }
 
+    // Lectura de la base: el clima lo calcula OrdenEnrichmentPipeline en segundo plano al crear la orden.
+    // Mientras no haya resultado responde 202 y, si no está esperando un reintento, se asegura de que
+    // la orden esté en cola. Si se agotaron los reintentos responde 503 con el estado FALLIDO.
     @GetMapping("/{orderId}/weather")
     public ResponseEntity<?> weatherForOrder(@PathVariable("orderId") Long orderId) {
-        return ordenRepository.findById(orderId).map(orden -> {
-            // Prefer buscar por comuna o region (texto) y asumir Chile
-            String searchText = (orden.getComuna() != null && !orden.getComuna().isBlank()) ? orden.getComuna()
-                    : (orden.getRegion() != null ? orden.getRegion() : buildAddressFromOrder(orden));
-            WeatherResult wr = weatherService.getWeatherByText(searchText);
-            double threshold = this.precipitationThreshold; // configurable umbral
-            Boolean deliveryAvailable = null;
-            if (wr.getPrecipitationProbability() == null) {
-                deliveryAvailable = true; // fallback permissive
-            } else {
-                deliveryAvailable = wr.getPrecipitationProbability() < threshold;
+        return ordenRepository.findById(orderId).<ResponseEntity<?>>map(orden -> {
+            if (orden.getEnriquecimiento() == EstadoEnriquecimiento.FALLIDO) {
+                Map<String, Object> fallido = new HashMap<>();
+                fallido.put("status", EstadoEnriquecimiento.FALLIDO.name());
+                fallido.put("attempts", orden.getEnriquecimientoIntentos());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(fallido);
             }
-            Map<String,Object> resp = new HashMap<>();
-            resp.put("weatherSummary", wr.getWeatherSummary());
-            resp.put("precipitationProbability", wr.getPrecipitationProbability());
-            resp.put("deliveryAvailable", deliveryAvailable);
-            resp.put("checkedAt", LocalDate.now().toString());
-            if (!deliveryAvailable) {
-                resp.put("recommendedDate", LocalDate.now().plusDays(1).toString());
+            if (orden.getEnriquecimiento() != EstadoEnriquecimiento.COMPLETADO) {
+                Instant reintento = orden.getEnriquecimientoReintentoEn();
+                if (reintento == null || !reintento.isAfter(Instant.now())) {
+                    enrichmentPipeline.submit(orden.getId());
+                }
+                Map<String, Object> pending = new HashMap<>();
+                pending.put("status", EstadoEnriquecimiento.PENDIENTE.name());
+                if (reintento != null) pending.put("retryAt", reintento.toString());
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(pending);
+            }
+            Map<String, Object> resp = new HashMap<>();
+            resp.put("weatherSummary", orden.getClimaResumen());
+            resp.put("precipitationProbability", orden.getProbabilidadLluvia());
+            resp.put("deliveryAvailable", orden.getEntregaViable());
+            resp.put("latitude", orden.getLatitud());
+            resp.put("longitude", orden.getLongitud());
+            LocalDate checkedAt = orden.getClimaConsultadoEn().atZone(zona).toLocalDate();
+            resp.put("checkedAt", checkedAt.toString());
+            if (!Boolean.TRUE.equals(orden.getEntregaViable())) {
+                resp.put("recommendedDate", checkedAt.plusDays(1).toString());
             }
             return ResponseEntity.ok(resp);
         }).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
-    private String buildAddressFromOrder(Orden orden) {
-        StringBuilder sb = new StringBuilder();
-        if (orden.getCalle() != null) sb.append(orden.getCalle());
-        if (orden.getComuna() != null) sb.append(", ").append(orden.getComuna());
-        if (orden.getRegion() != null) sb.append(", ").append(orden.getRegion());
-        return sb.toString();
+    @GetMapping("/weather/stats")
+    public ResponseEntity<Map<String, Object>> enrichmentStats() {
+        return ResponseEntity.ok(enrichmentPipeline.stats());
+    }
+
+    @GetMapping("/geocoding/stats")
+    public ResponseEntity<Map<String, Object>> geocodingStats() {
+        return ResponseEntity.ok(geocodingService.stats());
+    }
+
+    @GetMapping("/forecast/stats")
+    public ResponseEntity<Map<String, Object>> forecastStats() {
+        return ResponseEntity.ok(weatherService.stats());
     }
 
 }
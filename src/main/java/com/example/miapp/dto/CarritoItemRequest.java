@@ -20,9 +20,6 @@ public class CarritoItemRequest {
     private String sessionId;
 
     private Integer cantidad;
-    private String nombre;
-    private String imagen;
-    private Double precio;
 
     private IdWrapper producto;
     private IdWrapper usuario;
@@ -32,15 +29,6 @@ public class CarritoItemRequest {
     public Integer getCantidad() { return cantidad; }
     public void setCantidad(Integer cantidad) { this.cantidad = cantidad; }
 
-    public String getNombre() { return nombre; }
-    public void setNombre(String nombre) { this.nombre = nombre; }
-
-    public String getImagen() { return imagen; }
-    public void setImagen(String imagen) { this.imagen = imagen; }
-
-    public Double getPrecio() { return precio; }
-    public void setPrecio(Double precio) { this.precio = precio; }
-
     public Long getProductoId() {
         if (productoId != null) return productoId;
         if (producto != null) return producto.getId();
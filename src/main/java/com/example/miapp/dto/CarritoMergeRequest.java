@@ -0,0 +1,26 @@
+package com.example.miapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CarritoMergeRequest {
+
+    // Carrito anónimo que se pasa al usuario que acaba de iniciar sesión
+    @JsonProperty("session_id")
+    @JsonAlias({"sessionId"})
+    private String sessionId;
+
+    @JsonProperty("usuario_id")
+    @JsonAlias({"usuarioId"})
+    private Long usuarioId;
+
+    public CarritoMergeRequest() { }
+
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+
+    public Long getUsuarioId() { return usuarioId; }
+    public void setUsuarioId(Long usuarioId) { this.usuarioId = usuarioId; }
+}
@@ -0,0 +1,20 @@
+package com.example.miapp.dto;
+
+// Resumen del carrito para el badge y el mini-carrito; subtotal con los descuentos de oferta ya aplicados
+public class CarritoResumenResponse {
+    private int lineas;
+    private int unidades;
+    private double subtotal;
+
+    public CarritoResumenResponse() {}
+
+    public CarritoResumenResponse(int lineas, int unidades, double subtotal) {
+        this.lineas = lineas;
+        this.unidades = unidades;
+        this.subtotal = subtotal;
+    }
+
+    public int getLineas() { return lineas; }
+    public int getUnidades() { return unidades; }
+    public double getSubtotal() { return subtotal; }
+}
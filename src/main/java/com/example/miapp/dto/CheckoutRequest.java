@@ -0,0 +1,69 @@
+package com.example.miapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CheckoutRequest {
+
+    // Carrito a convertir: por sesión anónima o por usuario
+    @JsonProperty("session_id")
+    @JsonAlias({"sessionId"})
+    private String sessionId;
+
+    @JsonProperty("usuario_id")
+    @JsonAlias({"usuarioId"})
+    private Long usuarioId;
+
+    @JsonProperty("numero_orden")
+    @JsonAlias({"numeroOrden"})
+    private String numeroOrden;
+
+    @JsonProperty("nombre_completo")
+    @JsonAlias({"nombreCompleto"})
+    private String nombreCompleto;
+
+    private String apellidos;
+    private String correo;
+    private String calle;
+    private String departamento;
+    private String region;
+    private String comuna;
+    private String indicaciones;
+
+    public CheckoutRequest() { }
+
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+
+    public Long getUsuarioId() { return usuarioId; }
+    public void setUsuarioId(Long usuarioId) { this.usuarioId = usuarioId; }
+
+    public String getNumeroOrden() { return numeroOrden; }
+    public void setNumeroOrden(String numeroOrden) { this.numeroOrden = numeroOrden; }
+
+    public String getNombreCompleto() { return nombreCompleto; }
+    public void setNombreCompleto(String nombreCompleto) { this.nombreCompleto = nombreCompleto; }
+
+    public String getApellidos() { return apellidos; }
+    public void setApellidos(String apellidos) { this.apellidos = apellidos; }
+
+    public String getCorreo() { return correo; }
+    public void setCorreo(String correo) { this.correo = correo; }
+
+    public String getCalle() { return calle; }
+    public void setCalle(String calle) { this.calle = calle; }
+
+    public String getDepartamento() { return departamento; }
+    public void setDepartamento(String departamento) { this.departamento = departamento; }
+
+    public String getRegion() { return region; }
+    public void setRegion(String region) { this.region = region; }
+
+    public String getComuna() { return comuna; }
+    public void setComuna(String comuna) { this.comuna = comuna; }
+
+    public String getIndicaciones() { return indicaciones; }
+    public void setIndicaciones(String indicaciones) { this.indicaciones = indicaciones; }
+}
@@ -0,0 +1,24 @@
+package com.example.miapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EstadoTransicionRequest {
+
+    // Estado que el cliente cree que tiene la orden y estado al que quiere llevarla
+    private String desde;
+    private String hacia;
+    // Versión leída por el cliente; si se omite solo se compara el estado
+    private Long version;
+
+    public EstadoTransicionRequest() { }
+
+    public String getDesde() { return desde; }
+    public void setDesde(String desde) { this.desde = desde; }
+
+    public String getHacia() { return hacia; }
+    public void setHacia(String hacia) { this.hacia = hacia; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+}
@@ -0,0 +1,19 @@
+package com.example.miapp.dto;
+
+public class OrdenEstadoResponse {
+    private Long id;
+    private String estado;
+    private Long version;
+
+    public OrdenEstadoResponse() { }
+
+    public OrdenEstadoResponse(Long id, String estado, Long version) {
+        this.id = id;
+        this.estado = estado;
+        this.version = version;
+    }
+
+    public Long getId() { return id; }
+    public String getEstado() { return estado; }
+    public Long getVersion() { return version; }
+}
@@ -29,6 +29,8 @@ public class OrdenRequest {
     private String region;
     private String comuna;
     private String indicaciones;
+    // Versión leída por el cliente; si se envía, la actualización falla con 409 si la orden cambió
+    private Long version;
 
     public OrdenRequest() { }
 
@@ -39,7 +41,8 @@ public class OrdenRequest {
     public String getNumeroOrden() { return numeroOrden; }
     public void setNumeroOrden(String numeroOrden) { this.numeroOrden = numeroOrden; }
 
-    public String getEstado() { return estado != null ? estado : "PENDIENTE"; }
+    // null si no se envía: el alta usa PENDIENTE por defecto y la actualización conserva el estado actual
+    public String getEstado() { return estado; }
     public void setEstado(String estado) { this.estado = estado; }
 
     public Double getTotal() { return total; }
@@ -68,4 +71,7 @@ public class OrdenRequest {
 
     public String getIndicaciones() { return indicaciones; }
     public void setIndicaciones(String indicaciones) { this.indicaciones = indicaciones; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.example.miapp.dto;
 
+import java.time.Instant;
 import java.util.List;
 
 public class OrdenResponse {
@@ -16,6 +17,8 @@ public class OrdenResponse {
     private String region;
     private String comuna;
     private String indicaciones;
+    private Long version;
+    private Instant fechaCreacion;
     private List<OrdenItemResponse> items;
 
     public OrdenResponse() { }
@@ -78,6 +81,12 @@ public class OrdenResponse {
     public String getIndicaciones() { return indicaciones; }
     public void setIndicaciones(String indicaciones) { this.indicaciones = indicaciones; }
 
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+
+    public Instant getFechaCreacion() { return fechaCreacion; }
+    public void setFechaCreacion(Instant fechaCreacion) { this.fechaCreacion = fechaCreacion; }
+
     public List<OrdenItemResponse> getItems() { return items; }
     public void setItems(List<OrdenItemResponse> items) { this.items = items; }
 
@@ -0,0 +1,29 @@
+package com.example.miapp.dto;
+
+import java.util.List;
+import java.util.Map;
+
+import com.example.miapp.model.Producto;
+
+public class ProductoFilterResponse {
+    private List<Producto> items;
+    private String nextCursor;
+    private int total;
+    // faceta -> (valor -> cantidad de productos)
+    private Map<String, Map<String, Integer>> facets;
+
+    public ProductoFilterResponse() { }
+
+    public ProductoFilterResponse(List<Producto> items, String nextCursor, int total,
+                                  Map<String, Map<String, Integer>> facets) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.total = total;
+        this.facets = facets;
+    }
+
+    public List<Producto> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+    public int getTotal() { return total; }
+    public Map<String, Map<String, Integer>> getFacets() { return facets; }
+}
@@ -0,0 +1,63 @@
+package com.example.miapp.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+public class VentasReporteResponse {
+    private LocalDate desde;
+    private LocalDate hasta;
+    private List<String> agrupar;
+    private Double total;
+    private Long unidades;
+    private List<Fila> filas;
+
+    public VentasReporteResponse() { }
+
+    public VentasReporteResponse(LocalDate desde, LocalDate hasta, List<String> agrupar,
+                                 Double total, Long unidades, List<Fila> filas) {
+        this.desde = desde;
+        this.hasta = hasta;
+        this.agrupar = agrupar;
+        this.total = total;
+        this.unidades = unidades;
+        this.filas = filas;
+    }
+
+    public LocalDate getDesde() { return desde; }
+    public LocalDate getHasta() { return hasta; }
+    public List<String> getAgrupar() { return agrupar; }
+    public Double getTotal() { return total; }
+    public Long getUnidades() { return unidades; }
+    public List<Fila> getFilas() { return filas; }
+
+    // Solo se serializan las dimensiones por las que se agrupó
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Fila {
+        private LocalDate dia;
+        private String region;
+        private String comuna;
+        private String categoria;
+        private Double total;
+        private Long unidades;
+
+        public Fila() { }
+
+        public Fila(LocalDate dia, String region, String comuna, String categoria, Double total, Long unidades) {
+            this.dia = dia;
+            this.region = region;
+            this.comuna = comuna;
+            this.categoria = categoria;
+            this.total = total;
+            this.unidades = unidades;
+        }
+
+        public LocalDate getDia() { return dia; }
+        public String getRegion() { return region; }
+        public String getComuna() { return comuna; }
+        public String getCategoria() { return categoria; }
+        public Double getTotal() { return total; }
+        public Long getUnidades() { return unidades; }
+    }
+}
@@ -1,13 +1,22 @@
 package com.example.miapp.model;
 
 
+import java.time.Instant;
+
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -20,7 +29,13 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor // Constructor con todos los campos
 
 @Entity // Esta clase se convierte en tabla
-@Table(name = "carrito_items")
+// Carrito de una sesión o de un usuario: búsqueda por índice, ya ordenada por id
+@Table(name = "carrito_items", indexes = {
+        @Index(name = "idx_carrito_session", columnList = "session_id, id"),
+        @Index(name = "idx_carrito_usuario", columnList = "usuario_id, id"),
+        @Index(name = "idx_carrito_actividad", columnList = "ultima_actividad"),
+        @Index(name = "uk_carrito_clave_producto", columnList = "carrito_clave, producto_id", unique = true)
+})
 public class CarritoItem {
 
   @Id
@@ -49,4 +64,27 @@ public class CarritoItem {
 
   private Integer cantidad ;
 
+  // Última escritura de la línea; CarritoStore la fija al escribir. Filas existentes toman la fecha de la migración
+  @UpdateTimestamp
+  @ColumnDefault("CURRENT_TIMESTAMP")
+  @Column(name = "ultima_actividad", nullable = false)
+  private Instant ultimaActividad;
+
+  // Carrito dueño de la línea ("u:" + usuario_id o "s:" + session_id). Con la clave única
+  // (carrito_clave, producto_id) un producto aparece una sola vez por carrito
+  @Column(name = "carrito_clave")
+  private String carritoClave;
+
+  @PrePersist
+  @PreUpdate
+  void calcularCarritoClave() {
+    carritoClave = claveCarrito(sessionId, usuario != null ? usuario.getId() : null);
+  }
+
+  public static String claveCarrito(String sessionId, Long usuarioId) {
+    if (usuarioId != null) return "u:" + usuarioId;
+    if (sessionId != null && !sessionId.isBlank()) return "s:" + sessionId;
+    return null;
+  }
+
 }
\ No newline at end of file
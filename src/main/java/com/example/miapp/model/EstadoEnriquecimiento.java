@@ -0,0 +1,12 @@
+package com.example.miapp.model;
+
+/**
+ * Estado del enriquecimiento asíncrono de una orden (geocodificación + clima).
+ * Las órdenes anteriores a esta columna quedan en null y se enriquecen a pedido.
+ * FALLIDO: se agotaron los reintentos sin obtener un pronóstico.
+ */
+public enum EstadoEnriquecimiento {
+    PENDIENTE,
+    COMPLETADO,
+    FALLIDO
+}
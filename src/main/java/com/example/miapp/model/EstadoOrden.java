@@ -0,0 +1,53 @@
+package com.example.miapp.model;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Estados de una orden y transiciones permitidas entre ellos.
+ * Orden.estado se guarda como texto; este enum define qué cambios son válidos.
+ */
+public enum EstadoOrden {
+    PENDIENTE,
+    PAGADA,
+    EN_PREPARACION,
+    DESPACHADA,
+    ENTREGADA,
+    CANCELADA;
+
+    private Set<EstadoOrden> siguientes;
+
+    static {
+        PENDIENTE.siguientes = EnumSet.of(PAGADA, CANCELADA);
+        PAGADA.siguientes = EnumSet.of(EN_PREPARACION, CANCELADA);
+        EN_PREPARACION.siguientes = EnumSet.of(DESPACHADA, CANCELADA);
+        DESPACHADA.siguientes = EnumSet.of(ENTREGADA);
+        ENTREGADA.siguientes = EnumSet.noneOf(EstadoOrden.class);
+        CANCELADA.siguientes = EnumSet.noneOf(EstadoOrden.class);
+    }
+
+    public boolean puedePasarA(EstadoOrden destino) {
+        return siguientes.contains(destino);
+    }
+
+    public Set<EstadoOrden> getSiguientes() {
+        return EnumSet.copyOf(siguientes);
+    }
+
+    /** Estado con que nace una orden: sin valor es PENDIENTE y cualquier otro estado no es válido al crear. */
+    public static Optional<EstadoOrden> inicial(String value) {
+        if (value == null || value.isBlank()) return Optional.of(PENDIENTE);
+        return parse(value).filter(e -> e == PENDIENTE);
+    }
+
+    public static Optional<EstadoOrden> parse(String value) {
+        if (value == null || value.isBlank()) return Optional.empty();
+        try {
+            return Optional.of(valueOf(value.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+}
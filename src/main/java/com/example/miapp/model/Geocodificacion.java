@@ -0,0 +1,35 @@
+package com.example.miapp.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de geocodificación guardado por GeocodingService, por dirección normalizada
+ * (TextNormalizer.normalizePhrase). Sin latitud/longitud es un resultado negativo: Nominatim
+ * no encontró la dirección. Pasado expiraEn la fila se ignora y se reemplaza en la próxima consulta.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "geocodificacion")
+public class Geocodificacion {
+
+    @Id
+    @Column(length = 500)
+    private String consulta;
+
+    private Double latitud;
+
+    private Double longitud;
+
+    @Column(name = "expira_en", nullable = false)
+    private Instant expiraEn;
+}
@@ -0,0 +1,33 @@
+package com.example.miapp.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Hash de ubicación de Meteored por nombre de comuna o región normalizado
+ * (TextNormalizer.normalizePhrase). El hash de un lugar no cambia, así que la fila no vence.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "meteored_ubicacion")
+public class MeteoredUbicacion {
+
+    @Id
+    @Column(length = 500)
+    private String texto;
+
+    @Column(nullable = false)
+    private String hash;
+
+    @Column(name = "creado_en", nullable = false)
+    private Instant creadoEn;
+}
@@ -1,18 +1,26 @@
 package com.example.miapp.model;
 
+import java.time.Instant;
 import java.util.List;
 
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.CreationTimestamp;
+
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -21,7 +29,15 @@ import lombok.NoArgsConstructor;
 @Data // Lombok genera getters/setters/toString/etc.
 @NoArgsConstructor // Constructor vacío
 @AllArgsConstructor 
-@Table(name="orden")
+// Índices compuestos para /api/v1/orden/search: filtros de igualdad primero, luego
+// (fecha_creacion, id), que es el orden de la página y la clave del cursor
+@Table(name="orden", indexes = {
+        @Index(name = "idx_orden_estado_fecha", columnList = "estado, fecha_creacion, id"),
+        @Index(name = "idx_orden_comuna_estado_fecha", columnList = "comuna, estado, fecha_creacion, id"),
+        @Index(name = "idx_orden_region_estado_fecha", columnList = "region, estado, fecha_creacion, id"),
+        @Index(name = "idx_orden_correo_fecha", columnList = "correo, fecha_creacion, id"),
+        @Index(name = "idx_orden_fecha", columnList = "fecha_creacion, id")
+})
 
 public class Orden {
 
@@ -37,8 +53,20 @@ public class Orden {
     @Column(name = "numero_orden", unique = true, nullable = false)
     private String numeroOrden;
 
-    
-    private String estado = "PENDIENTE";
+    // Sin valor por defecto: al crear lo fija EstadoOrden.inicial, y en un PUT v2 sin estado se conserva el actual
+    private String estado;
+
+    // Bloqueo optimista: cada escritura incrementa la versión (default 0 para filas existentes)
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
+    // Filas existentes antes de esta columna toman la fecha de la migración
+    @CreationTimestamp
+    @ColumnDefault("CURRENT_TIMESTAMP")
+    @Column(name = "fecha_creacion", nullable = false, updatable = false)
+    private Instant fechaCreacion;
 
     @Column(name = "total")
     private Double total;
@@ -56,6 +84,33 @@ public class Orden {
     @Column(columnDefinition = "TEXT")
     private String indicaciones;
 
+    // Resultado del enriquecimiento asíncrono (OrdenEnrichmentPipeline): ubicación, clima y viabilidad de entrega
+    @Enumerated(EnumType.STRING)
+    private EstadoEnriquecimiento enriquecimiento = EstadoEnriquecimiento.PENDIENTE;
+
+    private Double latitud;
+    private Double longitud;
+
+    @Column(name = "clima_resumen")
+    private String climaResumen;
+
+    @Column(name = "probabilidad_lluvia")
+    private Double probabilidadLluvia;
+
+    @Column(name = "entrega_viable")
+    private Boolean entregaViable;
+
+    @Column(name = "clima_consultado_en")
+    private Instant climaConsultadoEn;
+
+    // Intentos fallidos de enriquecimiento y cuándo corresponde el próximo (backoff exponencial)
+    @ColumnDefault("0")
+    @Column(name = "enriquecimiento_intentos")
+    private Integer enriquecimientoIntentos = 0;
+
+    @Column(name = "enriquecimiento_reintento_en")
+    private Instant enriquecimientoReintentoEn;
+
     @OneToMany(mappedBy = "orden", cascade = CascadeType.ALL , orphanRemoval = true)
     private List<OrdenItem> items;
 
@@ -41,5 +41,9 @@ public class OrdenItem {
     private Double precioUnitario;
 
     private Double subtotal;
+
+    // Categoría del producto al escribir el item (la copia VentasRollupService si viene vacía). El
+    // rollup de ventas agrupa por esta copia: editar después la categoría del producto no cambia el aporte
+    private String categoria;
 }
 
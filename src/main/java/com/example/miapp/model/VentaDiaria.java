@@ -0,0 +1,54 @@
+package com.example.miapp.model;
+
+import java.time.LocalDate;
+
+import org.hibernate.annotations.ColumnDefault;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Rollup de ventas: total y unidades por día x región x comuna x categoría de producto.
+ * Lo mantiene VentasRollupService en la misma transacción que escribe órdenes e items;
+ * los reportes leen solo de esta tabla. Los valores desconocidos se guardan como "".
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "venta_diaria", uniqueConstraints = @UniqueConstraint(name = "uk_venta_diaria_clave",
+        columnNames = {"dia", "region", "comuna", "categoria"}))
+public class VentaDiaria {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private LocalDate dia;
+
+    @Column(nullable = false)
+    private String region;
+
+    @Column(nullable = false)
+    private String comuna;
+
+    @Column(nullable = false)
+    private String categoria;
+
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Double total;
+
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long unidades;
+}
@@ -1,10 +1,104 @@
 package com.example.miapp.repository;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.example.miapp.model.CarritoItem;
+import com.example.miapp.model.Usuario;
 
 
 
 public interface CarritoItemRepository extends JpaRepository<CarritoItem, Long> {
+
+    // Paginación por cursor: rango sobre la PK (id > after)
+    List<CarritoItem> findByIdGreaterThanOrderByIdAsc(Long after, Limit limit);
+
+    // Líneas del carrito con su producto en una sola consulta (checkout). Como en CarritoStore, el carrito
+    // de sesión son solo las líneas anónimas: las de un usuario con el mismo session_id son de su carrito
+    @Query("select ci from CarritoItem ci join fetch ci.producto where ci.sessionId = :sessionId and ci.usuario is null order by ci.id")
+    List<CarritoItem> findWithProductoBySessionId(@Param("sessionId") String sessionId);
+
+    @Query("select ci from CarritoItem ci join fetch ci.producto where ci.usuario.id = :usuarioId order by ci.id")
+    List<CarritoItem> findWithProductoByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    // Carga de un carrito en CarritoStore: el de sesión son las líneas anónimas de esa sesión.
+    // Solo columnas (las FK se leen sin inicializar Producto/Usuario): un recorrido del índice
+    @Query("select ci.id as id, ci.sessionId as sessionId, ci.usuario.id as usuarioId, ci.producto.id as productoId, "
+            + "ci.nombre as nombre, ci.imagen as imagen, ci.precio as precio, ci.cantidad as cantidad, ci.carritoClave as carritoClave "
+            + "from CarritoItem ci where ci.sessionId = :sessionId and ci.usuario is null order by ci.id")
+    List<LineaView> findLineasBySessionId(@Param("sessionId") String sessionId);
+
+    @Query("select ci.id as id, ci.sessionId as sessionId, ci.usuario.id as usuarioId, ci.producto.id as productoId, "
+            + "ci.nombre as nombre, ci.imagen as imagen, ci.precio as precio, ci.cantidad as cantidad, ci.carritoClave as carritoClave "
+            + "from CarritoItem ci where ci.usuario.id = :usuarioId order by ci.id")
+    List<LineaView> findLineasByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    @Modifying
+    @Query("delete from CarritoItem ci where ci.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Líneas anónimas sin actividad desde el límite (CarritoSweeper), las más antiguas primero
+    @Query("select ci.id from CarritoItem ci where ci.usuario is null and ci.ultimaActividad < :limite order by ci.ultimaActividad")
+    List<Long> findIdsAbandonados(@Param("limite") Instant limite, Limit limit);
+
+    // Se repite la condición: una línea que tuvo actividad después de seleccionarla no se borra
+    @Transactional
+    @Modifying
+    @Query("delete from CarritoItem ci where ci.id in :ids and ci.usuario is null and ci.ultimaActividad < :limite")
+    int deleteAbandonados(@Param("ids") Collection<Long> ids, @Param("limite") Instant limite);
+
+    // Fusión del carrito de sesión al iniciar sesión (CarritoMergeService), en este orden:
+    // 1) suma la cantidad de la sesión a la línea del usuario con el mismo producto (la de menor id)
+    @Modifying
+    @Query("update CarritoItem u set u.cantidad = coalesce(u.cantidad, 1) + (select sum(coalesce(s.cantidad, 1)) from CarritoItem s"
+            + " where s.sessionId = :sessionId and s.usuario is null and s.producto = u.producto)"
+            + " where u.usuario.id = :usuarioId"
+            + " and u.id = (select min(u2.id) from CarritoItem u2 where u2.usuario.id = :usuarioId and u2.producto = u.producto)"
+            + " and exists (select 1 from CarritoItem s where s.sessionId = :sessionId and s.usuario is null and s.producto = u.producto)")
+    int sumarSesionEnUsuario(@Param("sessionId") String sessionId, @Param("usuarioId") Long usuarioId);
+
+    // 2) borra las líneas de sesión ya sumadas al usuario
+    @Modifying
+    @Query("delete from CarritoItem s where s.sessionId = :sessionId and s.usuario is null"
+            + " and exists (select 1 from CarritoItem u where u.usuario.id = :usuarioId and u.producto = s.producto)")
+    int borrarSesionFusionada(@Param("sessionId") String sessionId, @Param("usuarioId") Long usuarioId);
+
+    // 3) junta en una línea (la de menor id) los productos repetidos dentro de la sesión
+    @Modifying
+    @Query("update CarritoItem s set s.cantidad = (select sum(coalesce(d.cantidad, 1)) from CarritoItem d"
+            + " where d.sessionId = :sessionId and d.usuario is null and d.producto = s.producto)"
+            + " where s.sessionId = :sessionId and s.usuario is null"
+            + " and s.id = (select min(d.id) from CarritoItem d where d.sessionId = :sessionId and d.usuario is null and d.producto = s.producto)"
+            + " and (select count(d) from CarritoItem d where d.sessionId = :sessionId and d.usuario is null and d.producto = s.producto) > 1")
+    int consolidarSesion(@Param("sessionId") String sessionId);
+
+    @Modifying
+    @Query("delete from CarritoItem s where s.sessionId = :sessionId and s.usuario is null"
+            + " and s.id > (select min(d.id) from CarritoItem d where d.sessionId = :sessionId and d.usuario is null and d.producto = s.producto)")
+    int borrarRepetidasDeSesion(@Param("sessionId") String sessionId);
+
+    // 4) el resto de la sesión pasa al usuario
+    @Modifying
+    @Query("update CarritoItem s set s.usuario = :usuario, s.carritoClave = :clave where s.sessionId = :sessionId and s.usuario is null")
+    int asignarSesionAUsuario(@Param("sessionId") String sessionId, @Param("usuario") Usuario usuario, @Param("clave") String clave);
+
+    interface LineaView {
+        Long getId();
+        String getSessionId();
+        Long getUsuarioId();
+        Long getProductoId();
+        String getNombre();
+        String getImagen();
+        Double getPrecio();
+        Integer getCantidad();
+        String getCarritoClave();
+    }
 }
@@ -1,5 +1,8 @@
 package com.example.miapp.repository;
 
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -7,5 +10,6 @@ import com.example.miapp.model.Contacto;
 
 @Repository
 public interface ContactoRepository extends JpaRepository<Contacto, Long> {
-    // queries custom si hace falta, por ahora básico
+    // Paginación por cursor: rango sobre la PK (id > after)
+    List<Contacto> findByIdGreaterThanOrderByIdAsc(Long after, Limit limit);
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package com.example.miapp.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.example.miapp.model.Geocodificacion;
+
+public interface GeocodificacionRepository extends JpaRepository<Geocodificacion, String> {
+}
@@ -0,0 +1,8 @@
+package com.example.miapp.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.example.miapp.model.MeteoredUbicacion;
+
+public interface MeteoredUbicacionRepository extends JpaRepository<MeteoredUbicacion, String> {
+}
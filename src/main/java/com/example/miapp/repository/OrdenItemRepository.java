@@ -1,9 +1,42 @@
 package com.example.miapp.repository;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.example.miapp.model.OrdenItem;
 
 
 public interface OrdenItemRepository extends JpaRepository<OrdenItem, Long> {
+
+    // Paginación por cursor: rango sobre la PK (id > after)
+    List<OrdenItem> findByIdGreaterThanOrderByIdAsc(Long after, Limit limit);
+
+    // Items de una página de órdenes en una sola consulta
+    @Query("select oi from OrdenItem oi where oi.orden.id in :ordenIds order by oi.id")
+    List<OrdenItem> findByOrdenIdIn(@Param("ordenIds") Collection<Long> ordenIds);
+
+    // Aporte de cada orden al rollup de ventas (una fila por orden y categoría); excluye el estado indicado.
+    // La categoría es la copiada en el item; la del producto solo cubre filas anteriores a esa copia
+    @Query("select o.fechaCreacion as fechaCreacion, o.region as region, o.comuna as comuna, "
+            + "coalesce(oi.categoria, p.categoria) as categoria, "
+            + "sum(coalesce(oi.cantidad, 0)) as unidades, sum(coalesce(oi.subtotal, 0)) as total "
+            + "from OrdenItem oi join oi.orden o left join oi.producto p "
+            + "where o.id in :ordenIds and (o.estado is null or o.estado <> :excluido) "
+            + "group by o.id, o.fechaCreacion, o.region, o.comuna, coalesce(oi.categoria, p.categoria)")
+    List<VentaOrden> sumarVentasPorOrden(@Param("ordenIds") Collection<Long> ordenIds, @Param("excluido") String excluido);
+
+    interface VentaOrden {
+        Instant getFechaCreacion();
+        String getRegion();
+        String getComuna();
+        String getCategoria();
+        Long getUnidades();
+        Double getTotal();
+    }
 }
@@ -1,11 +1,52 @@
 package com.example.miapp.repository;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.example.miapp.model.EstadoEnriquecimiento;
 import com.example.miapp.model.Orden;
 
-public interface OrdenRepository extends JpaRepository<Orden, Long> {
+public interface OrdenRepository extends JpaRepository<Orden, Long>, JpaSpecificationExecutor<Orden> {
 	Optional<Orden> findByNumeroOrden(String numeroOrden);
+
+	// Paginación por cursor: rango sobre la PK (id > after)
+	List<Orden> findByIdGreaterThanOrderByIdAsc(Long after, Limit limit);
+
+	// Solo ids, para recorrer la tabla por bloques (reconstrucción del rollup de ventas)
+	@Query("select o.id from Orden o where o.id > :after order by o.id")
+	List<Long> findIdsAfter(@Param("after") Long after, Limit limit);
+
+	// Ids vivos para ReferenceResolver
+	@Query("select o.id from Orden o")
+	List<Long> findAllIds();
+
+	// Órdenes con enriquecimiento pendiente cuyo reintento ya corresponde (barrido del pipeline de geocodificación + clima)
+	@Query("select o.id from Orden o where o.enriquecimiento = :estado "
+			+ "and (o.enriquecimientoReintentoEn is null or o.enriquecimientoReintentoEn <= :ahora) order by o.id")
+	List<Long> findIdsParaEnriquecer(@Param("estado") EstadoEnriquecimiento estado, @Param("ahora") Instant ahora, Limit limit);
+
+	// Detalle de orden con sus items en una sola consulta (fetch join)
+	@EntityGraph(attributePaths = "items")
+	Optional<Orden> findWithItemsById(Long id);
+
+	@EntityGraph(attributePaths = "items")
+	Optional<Orden> findWithItemsByNumeroOrden(String numeroOrden);
+
+	// Transición de estado como un único UPDATE condicional (sin leer antes); 0 filas = conflicto
+	@Transactional
+	@Modifying
+	@Query("update Orden o set o.estado = :hacia, o.version = o.version + 1 "
+			+ "where o.id = :id and o.estado = :desde and (:version is null or o.version = :version)")
+	int updateEstado(@Param("id") Long id, @Param("desde") String desde, @Param("hacia") String hacia,
+			@Param("version") Long version);
 }
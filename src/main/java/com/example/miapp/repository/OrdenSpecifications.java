@@ -0,0 +1,51 @@
+package com.example.miapp.repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.example.miapp.model.Orden;
+
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+
+/**
+ * Filtros de búsqueda de órdenes. Solo se agregan los predicados de los filtros presentes
+ * (en vez de "(:x is null or col = :x)"), así el plan de la consulta puede usar el índice
+ * compuesto que corresponde a cada combinación.
+ */
+public final class OrdenSpecifications {
+
+    private OrdenSpecifications() { }
+
+    /**
+     * @param desde     inicio del rango de creación (incluido), o null
+     * @param hasta     fin del rango de creación (excluido), o null
+     * @param afterFecha fecha de la última orden entregada (cursor), o null en la primera página
+     * @param afterId   id de la última orden entregada (desempate del cursor)
+     */
+    public static Specification<Orden> busqueda(String estado, String region, String comuna, String correo,
+                                                Instant desde, Instant hasta,
+                                                Instant afterFecha, Long afterId) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            if (estado != null) predicates.add(cb.equal(root.get("estado"), estado));
+            if (region != null) predicates.add(cb.equal(root.get("region"), region));
+            if (comuna != null) predicates.add(cb.equal(root.get("comuna"), comuna));
+            if (correo != null) predicates.add(cb.equal(root.get("correo"), correo));
+
+            Path<Instant> fecha = root.get("fechaCreacion");
+            if (desde != null) predicates.add(cb.greaterThanOrEqualTo(fecha, desde));
+            if (hasta != null) predicates.add(cb.lessThan(fecha, hasta));
+            // Keyset sobre (fecha desc, id desc)
+            if (afterFecha != null) {
+                predicates.add(cb.or(
+                        cb.lessThan(fecha, afterFecha),
+                        cb.and(cb.equal(fecha, afterFecha), cb.lessThan(root.get("id"), afterId))));
+            }
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+}
@@ -1,7 +1,18 @@
 package com.example.miapp.repository;
 
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import com.example.miapp.model.Producto;
 
 public interface ProductoRepository extends JpaRepository<Producto, Long> {
+
+    // Paginación por cursor: rango sobre la PK (id > after)
+    List<Producto> findByIdGreaterThanOrderByIdAsc(Long after, Limit limit);
+
+    // Ids vivos para ReferenceResolver
+    @Query("select p.id from Producto p")
+    List<Long> findAllIds();
 }
@@ -1,8 +1,11 @@
 package com.example.miapp.repository;
 
+import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.example.miapp.model.Usuario;
@@ -11,4 +14,11 @@ import com.example.miapp.model.Usuario;
 public interface UsuarioRepository extends JpaRepository<Usuario, Long> {
     
     Optional<Usuario> findByEmail(String email);
+
+    // Paginación por cursor: rango sobre la PK (id > after)
+    List<Usuario> findByIdGreaterThanOrderByIdAsc(Long after, Limit limit);
+
+    // Ids vivos para ReferenceResolver
+    @Query("select u.id from Usuario u")
+    List<Long> findAllIds();
 }
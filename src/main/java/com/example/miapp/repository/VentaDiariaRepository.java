@@ -0,0 +1,9 @@
+package com.example.miapp.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+
+import com.example.miapp.model.VentaDiaria;
+
+public interface VentaDiariaRepository extends JpaRepository<VentaDiaria, Long>, JpaSpecificationExecutor<VentaDiaria> {
+}
@@ -0,0 +1,32 @@
+package com.example.miapp.service;
+
+import com.example.miapp.model.CarritoItem;
+import com.example.miapp.repository.CarritoItemRepository;
+
+/**
+ * Línea de carrito tal como vive en {@link CarritoStore}. Es inmutable: cada cambio
+ * reemplaza la línea, así una copia leída por un request no cambia bajo sus pies.
+ */
+public record CarritoLinea(Long id, String sessionId, Long usuarioId, Long productoId,
+                           String nombre, String imagen, Double precio, Integer cantidad) {
+
+    static CarritoLinea of(CarritoItem ci) {
+        return new CarritoLinea(ci.getId(), ci.getSessionId(),
+                ci.getUsuario() != null ? ci.getUsuario().getId() : null,
+                ci.getProducto() != null ? ci.getProducto().getId() : null,
+                ci.getNombre(), ci.getImagen(), ci.getPrecio(), ci.getCantidad());
+    }
+
+    static CarritoLinea of(CarritoItemRepository.LineaView v) {
+        return new CarritoLinea(v.getId(), v.getSessionId(), v.getUsuarioId(), v.getProductoId(),
+                v.getNombre(), v.getImagen(), v.getPrecio(), v.getCantidad());
+    }
+
+    public CarritoLinea withCantidad(Integer cantidad) {
+        return new CarritoLinea(id, sessionId, usuarioId, productoId, nombre, imagen, precio, cantidad);
+    }
+
+    public CarritoLinea conProducto(String nombre, String imagen, Double precio) {
+        return new CarritoLinea(id, sessionId, usuarioId, productoId, nombre, imagen, precio, cantidad);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.miapp.service;
+
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.miapp.model.Usuario;
+import com.example.miapp.repository.CarritoItemRepository;
+
+/**
+ * Pasa el carrito anónimo de una sesión al usuario que inicia sesión, sumando cantidades
+ * cuando el producto ya estaba en el carrito del usuario. Son cinco sentencias sobre
+ * conjuntos en una transacción, sin importar cuántas líneas tenga el carrito. Tras el
+ * commit ambos carritos se descartan de {@link CarritoStore} para que se recarguen.
+ */
+@Service
+public class CarritoMergeService {
+
+    private final CarritoItemRepository carritoRepo;
+    private final ReferenceResolver references;
+    private final CarritoStore carritoStore;
+
+    public CarritoMergeService(CarritoItemRepository carritoRepo,
+                               ReferenceResolver references,
+                               CarritoStore carritoStore) {
+        this.carritoRepo = carritoRepo;
+        this.references = references;
+        this.carritoStore = carritoStore;
+    }
+
+    @Transactional
+    public Result merge(String sessionId, Long usuarioId) {
+        if (sessionId == null || sessionId.isBlank() || usuarioId == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "session_id y usuario_id son requeridos");
+        }
+        Usuario usuario = references.usuario(usuarioId);
+
+        // Las sentencias leen la base: primero se escriben los cambios pendientes en memoria
+        carritoStore.flush();
+        int sumadas = carritoRepo.sumarSesionEnUsuario(sessionId, usuarioId);
+        carritoRepo.borrarSesionFusionada(sessionId, usuarioId);
+        carritoRepo.consolidarSesion(sessionId);
+        carritoRepo.borrarRepetidasDeSesion(sessionId);
+        int movidas = carritoRepo.asignarSesionAUsuario(sessionId, usuario,
+                CarritoStore.clave(null, usuarioId));
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                carritoStore.desalojar(List.of(CarritoStore.clave(sessionId, null), CarritoStore.clave(null, usuarioId)), List.of());
+            }
+        });
+        return new Result(sumadas, movidas);
+    }
+
+    public static class Result {
+        private final int sumadas;
+        private final int movidas;
+
+        public Result(int sumadas, int movidas) {
+            this.sumadas = sumadas;
+            this.movidas = movidas;
+        }
+
+        // Líneas del usuario que recibieron cantidad de la sesión
+        public int getSumadas() { return sumadas; }
+        // Líneas de la sesión que pasaron al usuario
+        public int getMovidas() { return movidas; }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.miapp.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.model.Producto;
+
+/**
+ * Mantiene al día la copia de nombre, imagen y precio que guardan las líneas de carrito.
+ * Cada {@link ProductoChangedEvent} deja la última versión del producto en espera; cada
+ * carrito.sync.intervalo-ms se aplican todos los productos cambiados juntos con
+ * {@link CarritoStore#actualizarProductos}. Así un cambio masivo de precios se resuelve en un
+ * solo batch, y varios guardados seguidos del mismo producto en una sola escritura.
+ */
+@Service
+public class CarritoProductoSync {
+
+    private static final Logger log = LoggerFactory.getLogger(CarritoProductoSync.class);
+
+    private final CarritoStore carritoStore;
+    private final Map<Long, Producto> pendientes = new ConcurrentHashMap<>();
+
+    public CarritoProductoSync(CarritoStore carritoStore) {
+        this.carritoStore = carritoStore;
+    }
+
+    @EventListener
+    public void onProductoChanged(ProductoChangedEvent event) {
+        if (event.isDeleted()) {
+            pendientes.remove(event.getProductoId());
+        } else {
+            pendientes.put(event.getProductoId(), event.getProducto());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${carrito.sync.intervalo-ms:1000}")
+    public void aplicar() {
+        if (pendientes.isEmpty()) return;
+        List<Producto> lote = new ArrayList<>(pendientes.size());
+        // remove(k, v): si llegó una versión más nueva mientras tanto, queda para la próxima ronda
+        pendientes.forEach((id, p) -> {
+            if (pendientes.remove(id, p)) lote.add(p);
+        });
+        try {
+            int n = carritoStore.actualizarProductos(lote);
+            log.debug("{} productos propagados a {} líneas de carrito", lote.size(), n);
+        } catch (RuntimeException e) {
+            lote.forEach(p -> pendientes.putIfAbsent(p.getId(), p));
+            log.warn("No se pudieron propagar {} productos a los carritos: {}", lote.size(), e.toString());
+        }
+    }
+}
@@ -0,0 +1,644 @@
+package com.example.miapp.service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.miapp.dto.CarritoResumenResponse;
+import com.example.miapp.model.CarritoItem;
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.CarritoItemRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Carritos vivos en memoria, por sesión anónima ("s:" + session_id) o por usuario ("u:" + usuario_id).
+ * Un carrito se carga de carrito_items la primera vez que se usa; después las lecturas y escrituras
+ * solo tocan memoria y los cambios se escriben a la base cada carrito.store.flush-ms (write-behind),
+ * en un único batch por ronda. Los carritos sin uso por más de ttl-minutes (TTL deslizante) se
+ * escriben y se descartan. Las líneas nuevas sí se insertan al momento: el id lo asigna la base
+ * (IDENTITY), así el cliente recibe desde el alta el id definitivo de la línea.
+ */
+@Service
+public class CarritoStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CarritoStore.class);
+
+    // Alta de línea como upsert sobre la clave única (carrito_clave, producto_id): si otra instancia ya
+    // insertó ese producto en el carrito, se suma la cantidad en la misma sentencia. Devuelve la fila final
+    private static final String ALTA_SQL = "insert into carrito_items (session_id, usuario_id, producto_id, nombre, imagen, precio, cantidad, "
+            + "ultima_actividad, carrito_clave) values (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "on conflict (carrito_clave, producto_id) do update set cantidad = coalesce(carrito_items.cantidad, 1) + excluded.cantidad, "
+            + "ultima_actividad = excluded.ultima_actividad returning id, cantidad";
+    // Equivalente para H2, que no soporta on conflict do update; la fila final se lee después con ALTA_FILA_SQL
+    private static final String ALTA_MERGE_SQL = "merge into carrito_items t using (values (cast(? as varchar), cast(? as bigint), cast(? as bigint), "
+            + "cast(? as varchar), cast(? as varchar), cast(? as double precision), cast(? as integer), cast(? as timestamp), cast(? as varchar))) "
+            + "s (session_id, usuario_id, producto_id, nombre, imagen, precio, cantidad, ultima_actividad, carrito_clave) "
+            + "on t.carrito_clave = s.carrito_clave and t.producto_id = s.producto_id "
+            + "when matched then update set cantidad = coalesce(t.cantidad, 1) + s.cantidad, ultima_actividad = s.ultima_actividad "
+            + "when not matched then insert (session_id, usuario_id, producto_id, nombre, imagen, precio, cantidad, ultima_actividad, carrito_clave) "
+            + "values (s.session_id, s.usuario_id, s.producto_id, s.nombre, s.imagen, s.precio, s.cantidad, s.ultima_actividad, s.carrito_clave)";
+    private static final String ALTA_FILA_SQL = "select id, cantidad from carrito_items where carrito_clave = ? and producto_id = ?";
+    // Reinserción de líneas que ya tienen id (ver reescribir), con el mismo upsert
+    private static final String UPSERT_SQL = "insert into carrito_items (session_id, usuario_id, producto_id, nombre, imagen, precio, cantidad, "
+            + "ultima_actividad, carrito_clave, id) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "on conflict (carrito_clave, producto_id) do update set cantidad = coalesce(carrito_items.cantidad, 1) + excluded.cantidad, "
+            + "ultima_actividad = excluded.ultima_actividad";
+    // Equivalente para H2, que no soporta on conflict do update
+    private static final String MERGE_SQL = "merge into carrito_items t using (values (cast(? as varchar), cast(? as bigint), cast(? as bigint), "
+            + "cast(? as varchar), cast(? as varchar), cast(? as double precision), cast(? as integer), cast(? as timestamp), cast(? as varchar), "
+            + "cast(? as bigint))) s (session_id, usuario_id, producto_id, nombre, imagen, precio, cantidad, ultima_actividad, carrito_clave, id) "
+            + "on t.carrito_clave = s.carrito_clave and t.producto_id = s.producto_id "
+            + "when matched then update set cantidad = coalesce(t.cantidad, 1) + s.cantidad, ultima_actividad = s.ultima_actividad "
+            + "when not matched then insert (session_id, usuario_id, producto_id, nombre, imagen, precio, cantidad, ultima_actividad, carrito_clave, id) "
+            + "values (s.session_id, s.usuario_id, s.producto_id, s.nombre, s.imagen, s.precio, s.cantidad, s.ultima_actividad, s.carrito_clave, s.id)";
+    private static final String UPDATE_SQL = "update carrito_items set session_id = ?, usuario_id = ?, producto_id = ?, nombre = ?, "
+            + "imagen = ?, precio = ?, cantidad = ?, ultima_actividad = ?, carrito_clave = ? where id = ?";
+    private static final String DELETE_SQL = "delete from carrito_items where id = ?";
+    // Solo se reescriben las filas cuya copia quedó distinta
+    private static final String PRODUCTO_SQL = "update carrito_items set nombre = ?, imagen = ?, precio = ? where producto_id = ? "
+            + "and (nombre is distinct from ? or imagen is distinct from ? or precio is distinct from ?)";
+    private static final int[] LINEA_TYPES = {
+            Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.DOUBLE, Types.INTEGER, Types.TIMESTAMP, Types.VARCHAR, Types.BIGINT
+    };
+
+    private final CarritoItemRepository carritoRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate flushTx;
+    private final boolean h2;
+    private final String insertSql;
+    private final long ttlNanos;
+    private final int maxCarritos;
+
+    private final Map<String, Carrito> carritos = new ConcurrentHashMap<>();
+    private final Map<Long, String> claveDeLinea = new ConcurrentHashMap<>();
+    private final Set<Carrito> conPendientes = ConcurrentHashMap.newKeySet();
+    // Serializa las altas de un mismo carrito (la decisión fusionar en memoria / insertar no debe cruzarse).
+    // ReentrantLock y no synchronized: se mantiene durante el insert sin fijar el hilo virtual
+    private final ReentrantLock[] altas = new ReentrantLock[64];
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final LongAdder cargas = new LongAdder();
+    private final LongAdder escrituras = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+    private final LongAdder altasFusionadas = new LongAdder();
+
+    public CarritoStore(CarritoItemRepository carritoRepo,
+                        JdbcTemplate jdbcTemplate,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${carrito.store.ttl-minutes:30}") long ttlMinutes,
+                        @Value("${carrito.store.max-carritos:100000}") int maxCarritos) {
+        this.carritoRepo = carritoRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        // Transacción propia: un flush llamado desde otra transacción (checkout) no depende de su rollback
+        this.flushTx = new TransactionTemplate(transactionManager);
+        this.flushTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        String base = jdbcTemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+        this.h2 = "H2".equalsIgnoreCase(base);
+        this.insertSql = h2 ? MERGE_SQL : UPSERT_SQL;
+        Arrays.setAll(altas, i -> new ReentrantLock());
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        this.maxCarritos = maxCarritos;
+    }
+
+    /** Clave del carrito al que pertenece una línea: el usuario si lo hay, si no la sesión; null si no tiene ninguno. */
+    public static String clave(String sessionId, Long usuarioId) {
+        return CarritoItem.claveCarrito(sessionId, usuarioId);
+    }
+
+    public List<CarritoLinea> lineas(String sessionId, Long usuarioId) {
+        String clave = clave(sessionId, usuarioId);
+        if (clave == null) return List.of();
+        return conCarrito(clave, c -> List.copyOf(c.lineas.values()));
+    }
+
+    /** Líneas, unidades y subtotal del carrito, mantenidos en cada cambio: O(1) si el carrito está en memoria. */
+    public CarritoResumenResponse resumen(String sessionId, Long usuarioId) {
+        String clave = clave(sessionId, usuarioId);
+        if (clave == null) return new CarritoResumenResponse(0, 0, 0.0);
+        return conCarrito(clave, c -> new CarritoResumenResponse(c.lineas.size(), c.unidades,
+                Math.round(c.subtotal * 100.0) / 100.0));
+    }
+
+    public Optional<CarritoLinea> linea(Long id) {
+        String clave = claveDeLinea.get(id);
+        if (clave == null) {
+            // No está en memoria: se busca en la base y se carga su carrito
+            Optional<CarritoItem> ci = carritoRepo.findById(id);
+            if (ci.isEmpty()) return Optional.empty();
+            clave = clave(ci.get().getSessionId(), ci.get().getUsuario() != null ? ci.get().getUsuario().getId() : null);
+            if (clave == null) return ci.map(CarritoLinea::of); // línea antigua sin carrito: no se guarda en memoria
+        }
+        return Optional.ofNullable(conCarrito(clave, c -> c.lineas.get(id)));
+    }
+
+    /**
+     * Agrega un producto al carrito de la línea (su id se ignora). Si el carrito ya tiene ese producto
+     * se suma la cantidad a esa línea en memoria; si no, la línea se inserta al momento para que
+     * la base le asigne su id. Devuelve la línea resultante.
+     */
+    public CarritoLinea agregar(CarritoLinea nueva) {
+        String clave = clave(nueva.sessionId(), nueva.usuarioId());
+        if (clave == null) {
+            throw new IllegalArgumentException("La línea debe tener session_id o usuario_id");
+        }
+        CarritoLinea linea = new CarritoLinea(null, nueva.sessionId(), nueva.usuarioId(), nueva.productoId(),
+                nueva.nombre(), nueva.imagen(), nueva.precio(), nueva.cantidad());
+        ReentrantLock alta = altas[Math.floorMod(clave.hashCode(), altas.length)];
+        alta.lock();
+        try {
+            CarritoLinea fusion = conCarrito(clave, c -> c.ponerFusionando(linea, true));
+            if (fusion != null) return fusion;
+            if (conCarrito(clave, c -> !c.borradas.isEmpty())) {
+                // Una fila por borrar con este mismo producto absorbería el upsert y luego se borraría con él
+                flush();
+            }
+            CarritoLinea insertada = insertar(linea, clave);
+            // Una fila nueva queda con la cantidad pedida; una fusión, con la suma (la cantidad pedida es > 0)
+            if (!Objects.equals(insertada.cantidad(), linea.cantidad())) {
+                // El upsert se sumó a una fila que el carrito en memoria no tenía (la escribió otra instancia
+                // u otro camino): el carrito está desactualizado, se descarta y se recarga de la base
+                altasFusionadas.increment();
+                desalojar(List.of(clave), List.of());
+            }
+            return conCarrito(clave, c -> c.lineas.containsKey(insertada.id()) ? c.lineas.get(insertada.id()) : c.registrar(insertada));
+        } finally {
+            alta.unlock();
+        }
+    }
+
+    /** Aplica un cambio a una línea; si cambia su sesión o usuario, la línea pasa al carrito correspondiente. */
+    public Optional<CarritoLinea> actualizar(Long id, UnaryOperator<CarritoLinea> cambio) {
+        Optional<CarritoLinea> actual = linea(id);
+        if (actual.isEmpty()) return Optional.empty();
+        String clave = claveDeLinea.get(id);
+        if (clave == null) {
+            // Línea antigua sin carrito: se escribe directo
+            CarritoLinea nueva = cambio.apply(actual.get());
+            jdbcTemplate.update(UPDATE_SQL, valores(nueva, Timestamp.from(Instant.now())), LINEA_TYPES);
+            return Optional.of(nueva);
+        }
+        CarritoLinea nueva = conCarrito(clave, c -> {
+            CarritoLinea vieja = c.lineas.get(id);
+            if (vieja == null) return null;
+            CarritoLinea cambiada = cambio.apply(vieja);
+            if (clave.equals(clave(cambiada.sessionId(), cambiada.usuarioId()))) {
+                return c.ponerFusionando(cambiada, false);
+            }
+            c.sacar(id);
+            return cambiada;
+        });
+        if (nueva == null) return Optional.empty();
+        String nuevaClave = clave(nueva.sessionId(), nueva.usuarioId());
+        if (!clave.equals(nuevaClave)) {
+            return Optional.of(conCarrito(nuevaClave, c -> c.ponerFusionando(nueva, false)));
+        }
+        return Optional.of(nueva);
+    }
+
+    public boolean eliminar(Long id) {
+        Optional<CarritoLinea> actual = linea(id);
+        if (actual.isEmpty()) return false;
+        String clave = claveDeLinea.get(id);
+        if (clave == null) {
+            jdbcTemplate.update(DELETE_SQL, id);
+            return true;
+        }
+        return conCarrito(clave, c -> c.borrar(id));
+    }
+
+    /** Olvida líneas borradas en la base por otro camino (p. ej. el checkout), sin escribir nada. */
+    public void olvidarLineas(Collection<Long> ids) {
+        for (Long id : ids) {
+            String clave = claveDeLinea.remove(id);
+            Carrito c = (clave != null) ? carritos.get(clave) : null;
+            if (c != null) {
+                synchronized (c) {
+                    c.quitar(id);
+                    c.sucias.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Escribe los cambios pendientes y descarta de memoria los carritos indicados (y el de cada línea),
+     * para que la próxima lectura vea lo que otro camino escribió directo en la base.
+     */
+    public void desalojar(Collection<String> claves, Collection<Long> lineaIds) {
+        flush();
+        Set<String> todas = new HashSet<>();
+        claves.stream().filter(k -> k != null).forEach(todas::add);
+        lineaIds.stream().map(claveDeLinea::get).filter(k -> k != null).forEach(todas::add);
+        todas.forEach(k -> {
+            Carrito c = carritos.get(k);
+            if (c != null) intentarDesalojar(k, c);
+        });
+    }
+
+    /** Escribe a la base todos los cambios pendientes en un único batch. */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Carrito> pendientes = new ArrayList<>(conPendientes);
+            pendientes.forEach(conPendientes::remove);
+            if (pendientes.isEmpty()) return;
+
+            List<Lote> lotes = new ArrayList<>(pendientes.size());
+            for (Carrito c : pendientes) {
+                lotes.add(c.tomarPendientes());
+            }
+            try {
+                escribir(lotes, false);
+            } catch (RuntimeException e) {
+                // Un carrito con datos inválidos no debe bloquear al resto: se reintenta de a uno
+                log.warn("Flush de carritos falló ({}); reintentando por carrito", e.toString());
+                for (Lote lote : lotes) {
+                    try {
+                        escribir(List.of(lote), false);
+                    } catch (RuntimeException e2) {
+                        reescribir(lote, e2);
+                    }
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${carrito.store.flush-ms:5000}")
+    public void flushYDesalojar() {
+        flush();
+        long ahora = System.nanoTime();
+        carritos.forEach((k, c) -> {
+            if (ahora - c.ultimoAcceso > ttlNanos) intentarDesalojar(k, c);
+        });
+        int exceso = carritos.size() - maxCarritos;
+        if (exceso > 0) {
+            carritos.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().ultimoAcceso))
+                    .limit(exceso)
+                    .toList()
+                    .forEach(e -> intentarDesalojar(e.getKey(), e.getValue()));
+        }
+    }
+
+    /**
+     * Copia nombre, imagen y precio final de cada producto a sus líneas de carrito, en memoria
+     * y en la base (un UPDATE por producto, todos en un batch). Corre con el flush bloqueado para
+     * que un flush en curso no escriba encima la copia anterior. Devuelve las filas actualizadas.
+     */
+    public int actualizarProductos(Collection<Producto> productos) {
+        if (productos.isEmpty()) return 0;
+        Map<Long, Producto> porId = new HashMap<>();
+        productos.forEach(p -> porId.put(p.getId(), p));
+        List<Object[]> filas = new ArrayList<>(porId.size());
+        for (Producto p : porId.values()) {
+            Double precio = Precios.precioFinal(p);
+            filas.add(new Object[] {p.getNombre(), p.getImagen(), precio, p.getId(), p.getNombre(), p.getImagen(), precio});
+        }
+        flushLock.lock();
+        try {
+            for (Carrito c : carritos.values()) {
+                synchronized (c) {
+                    for (CarritoLinea l : List.copyOf(c.lineas.values())) {
+                        Producto p = porId.get(l.productoId());
+                        if (p != null) c.colocar(l.conProducto(p.getNombre(), p.getImagen(), Precios.precioFinal(p)));
+                    }
+                }
+            }
+            int[] counts = flushTx.execute(status -> jdbcTemplate.batchUpdate(PRODUCTO_SQL, filas, new int[] {
+                    Types.VARCHAR, Types.VARCHAR, Types.DOUBLE, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.DOUBLE
+            }));
+            return Arrays.stream(counts).map(n -> Math.max(n, 0)).sum();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** true si la línea está en un carrito en memoria (su fila puede estar desactualizada). */
+    public boolean enMemoria(Long id) {
+        return claveDeLinea.containsKey(id);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("carritos", carritos.size());
+        stats.put("lineas", claveDeLinea.size());
+        stats.put("con_pendientes", conPendientes.size());
+        stats.put("cargas", cargas.sum());
+        stats.put("filas_escritas", escrituras.sum());
+        stats.put("desalojos", desalojos.sum());
+        stats.put("altas_fusionadas", altasFusionadas.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    // --- Internos ---
+
+    private <T> T conCarrito(String clave, Function<Carrito, T> op) {
+        while (true) {
+            Carrito c = carritos.get(clave);
+            if (c == null) {
+                // La carga (JDBC) se hace fuera del mapa: dentro de computeIfAbsent bloquearía otras claves
+                Carrito cargado = cargar(clave);
+                c = carritos.putIfAbsent(clave, cargado);
+                if (c == null) {
+                    c = cargado;
+                } else {
+                    // Otro request lo cargó antes: se usa ese y esta copia no debe escribirse
+                    conPendientes.remove(cargado);
+                }
+            }
+            synchronized (c) {
+                if (c.desalojado) continue; // desalojado entre el get y el lock: se vuelve a cargar
+                c.ultimoAcceso = System.nanoTime();
+                return op.apply(c);
+            }
+        }
+    }
+
+    private Carrito cargar(String clave) {
+        cargas.increment();
+        List<CarritoItemRepository.LineaView> filas = clave.startsWith("u:")
+                ? carritoRepo.findLineasByUsuarioId(Long.valueOf(clave.substring(2)))
+                : carritoRepo.findLineasBySessionId(clave.substring(2));
+        Carrito c = new Carrito(clave);
+        for (CarritoItemRepository.LineaView v : filas) {
+            // Si la línea ya está en memoria en otro carrito (se movió y aún no se escribe), manda la memoria
+            String otra = claveDeLinea.putIfAbsent(v.getId(), clave);
+            if (otra == null || otra.equals(clave)) {
+                CarritoLinea linea = CarritoLinea.of(v);
+                if (v.getCarritoClave() == null || c.porProducto(linea.productoId()) != null) {
+                    // Fila anterior a la clave única (o producto repetido): se fusiona y se reescribe
+                    c.ponerFusionando(linea, false);
+                } else {
+                    c.colocar(linea);
+                }
+            }
+        }
+        return c;
+    }
+
+    // Solo si no tiene cambios sin escribir; si los tiene se intenta en la próxima ronda
+    private void intentarDesalojar(String clave, Carrito c) {
+        synchronized (c) {
+            if (c.desalojado || c.tienePendientes()) return;
+            c.desalojado = true;
+            carritos.remove(clave, c);
+            c.lineas.keySet().forEach(id -> claveDeLinea.remove(id, clave));
+        }
+        desalojos.increment();
+    }
+
+    // Dos líneas que intercambian producto chocan con la clave única en cualquier orden de UPDATE:
+    // se borran y se vuelven a insertar las filas del carrito en la misma transacción
+    private void reescribir(Lote lote, RuntimeException causa) {
+        try {
+            escribir(List.of(lote), true);
+        } catch (RuntimeException e) {
+            log.warn("Flush del carrito {} falló, se reintentará: {}", lote.carrito.clave, causa.toString());
+            lote.carrito.devolverPendientes(lote);
+        }
+    }
+
+    private void escribir(List<Lote> lotes, boolean reinsertar) {
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        List<Long> updateIds = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        // Cada fila escrita registra la actividad (la usa CarritoSweeper para detectar abandonos)
+        Timestamp ahora = Timestamp.from(Instant.now());
+        for (Lote lote : lotes) {
+            for (CarritoLinea l : lote.upserts) {
+                if (reinsertar) {
+                    deletes.add(new Object[] {l.id()});
+                    inserts.add(valores(l, ahora));
+                } else {
+                    updates.add(valores(l, ahora));
+                    updateIds.add(l.id());
+                }
+            }
+            for (Long id : lote.deletes) {
+                deletes.add(new Object[] {id});
+            }
+        }
+        List<Long> perdidas = new ArrayList<>();
+        flushTx.executeWithoutResult(status -> {
+            // Deletes, luego updates y al final inserts: los deletes van primero para que la fila de una línea
+            // fusionada (o, al reescribir, la fila vieja) libere su clave (carrito_clave, producto_id) antes
+            // de que un update o un insert la ocupe
+            if (!deletes.isEmpty()) jdbcTemplate.batchUpdate(DELETE_SQL, deletes, new int[] {Types.BIGINT});
+            if (!updates.isEmpty()) {
+                int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, updates, LINEA_TYPES);
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) perdidas.add(updateIds.get(i));
+                }
+            }
+            if (!inserts.isEmpty()) jdbcTemplate.batchUpdate(insertSql, inserts, LINEA_TYPES);
+        });
+        escrituras.add(inserts.size() + updates.size() + deletes.size());
+        // Filas borradas por otro camino mientras la línea estaba en memoria: no se resucitan, y el carrito
+        // se recarga para ver lo que ese camino dejó en la base
+        if (!perdidas.isEmpty()) {
+            Set<String> claves = new HashSet<>();
+            perdidas.stream().map(claveDeLinea::get).filter(k -> k != null).forEach(claves::add);
+            olvidarLineas(perdidas);
+            claves.forEach(k -> {
+                Carrito c = carritos.get(k);
+                if (c != null) intentarDesalojar(k, c);
+            });
+        }
+    }
+
+    // Upsert de una línea nueva en su propia transacción; devuelve la línea con el id y la cantidad de la fila
+    private CarritoLinea insertar(CarritoLinea l, String clave) {
+        Object[] valores = Arrays.copyOf(valores(l, Timestamp.from(Instant.now())), 9);
+        int[] tipos = Arrays.copyOf(LINEA_TYPES, 9);
+        RowMapper<CarritoLinea> fila = (rs, n) -> new CarritoLinea(rs.getLong("id"), l.sessionId(), l.usuarioId(), l.productoId(),
+                l.nombre(), l.imagen(), l.precio(), rs.getInt("cantidad"));
+        CarritoLinea insertada = flushTx.execute(status -> {
+            if (!h2) return jdbcTemplate.queryForObject(ALTA_SQL, valores, tipos, fila);
+            jdbcTemplate.update(ALTA_MERGE_SQL, valores, tipos);
+            return jdbcTemplate.queryForObject(ALTA_FILA_SQL, fila, clave, l.productoId());
+        });
+        escrituras.increment();
+        return insertada;
+    }
+
+    private static Object[] valores(CarritoLinea l, Timestamp actividad) {
+        return new Object[] {l.sessionId(), l.usuarioId(), l.productoId(), l.nombre(), l.imagen(), l.precio(), l.cantidad(), actividad,
+                clave(l.sessionId(), l.usuarioId()), l.id()};
+    }
+
+    // Misma regla que el checkout: cantidad ausente o no positiva cuenta como 1
+    private static int cantidad(CarritoLinea l) {
+        return (l.cantidad() != null && l.cantidad() > 0) ? l.cantidad() : 1;
+    }
+
+    private static double importe(CarritoLinea l) {
+        return (l.precio() != null ? l.precio() : 0.0) * cantidad(l);
+    }
+
+    private record Lote(Carrito carrito, List<CarritoLinea> upserts, List<Long> deletes) { }
+
+    private final class Carrito {
+        final String clave;
+        // Todo protegido por synchronized(this)
+        final Map<Long, CarritoLinea> lineas = new LinkedHashMap<>();
+        final Set<Long> sucias = new HashSet<>();
+        final Set<Long> borradas = new HashSet<>();
+        long ultimoAcceso = System.nanoTime();
+        boolean desalojado;
+
+        Carrito(String clave) {
+            this.clave = clave;
+        }
+
+        // Resumen mantenido en cada cambio de lineas (colocar/quitar), para leerlo sin recorrer el carrito
+        int unidades;
+        double subtotal;
+
+        void colocar(CarritoLinea linea) {
+            restar(lineas.put(linea.id(), linea));
+            unidades += cantidad(linea);
+            subtotal += importe(linea);
+        }
+
+        CarritoLinea quitar(Long id) {
+            CarritoLinea l = lineas.remove(id);
+            restar(l);
+            if (lineas.isEmpty()) {
+                // Sin líneas el resumen es exacto: se descarta el error de redondeo acumulado
+                unidades = 0;
+                subtotal = 0.0;
+            }
+            return l;
+        }
+
+        private void restar(CarritoLinea l) {
+            if (l == null) return;
+            unidades -= cantidad(l);
+            subtotal -= importe(l);
+        }
+
+        // Línea que ya está escrita en la base: entra sin quedar pendiente
+        CarritoLinea registrar(CarritoLinea linea) {
+            colocar(linea);
+            claveDeLinea.put(linea.id(), clave);
+            return linea;
+        }
+
+        void poner(CarritoLinea linea) {
+            colocar(linea);
+            claveDeLinea.put(linea.id(), clave);
+            sucias.add(linea.id());
+            borradas.remove(linea.id());
+            conPendientes.add(this);
+        }
+
+        CarritoLinea porProducto(Long productoId) {
+            if (productoId == null) return null;
+            for (CarritoLinea l : lineas.values()) {
+                if (productoId.equals(l.productoId())) return l;
+            }
+            return null;
+        }
+
+        /**
+         * Pone la línea en el carrito; si otra línea ya tiene el mismo producto, suma la cantidad a esa
+         * y la línea recibida desaparece. nueva indica que la línea aún no existe en ninguna parte: si no
+         * hay con qué fusionarla devuelve null y no la pone (la inserta agregar).
+         */
+        CarritoLinea ponerFusionando(CarritoLinea linea, boolean nueva) {
+            CarritoLinea otra = porProducto(linea.productoId());
+            if (otra == null && nueva) {
+                // Sin fila todavía: la inserta agregar()
+                return null;
+            }
+            if (otra == null || otra.id().equals(linea.id())) {
+                poner(linea);
+                return linea;
+            }
+            if (!nueva) {
+                // La línea existente (de este carrito o movida desde otro) se borra al escribir
+                quitar(linea.id());
+                claveDeLinea.remove(linea.id());
+                sucias.remove(linea.id());
+                borradas.add(linea.id());
+            }
+            CarritoLinea fusion = otra.withCantidad(cantidad(otra) + cantidad(linea));
+            poner(fusion);
+            return fusion;
+        }
+
+        // La línea pasa a otro carrito: no se borra de la base, la escribe el carrito nuevo
+        void sacar(Long id) {
+            quitar(id);
+            sucias.remove(id);
+        }
+
+        boolean borrar(Long id) {
+            if (quitar(id) == null) return false;
+            sucias.remove(id);
+            borradas.add(id);
+            claveDeLinea.remove(id, clave);
+            conPendientes.add(this);
+            return true;
+        }
+
+        boolean tienePendientes() {
+            return !sucias.isEmpty() || !borradas.isEmpty();
+        }
+
+        synchronized Lote tomarPendientes() {
+            List<CarritoLinea> upserts = sucias.stream().map(lineas::get).filter(l -> l != null).toList();
+            List<Long> deletes = List.copyOf(borradas);
+            sucias.clear();
+            borradas.clear();
+            return new Lote(this, upserts, deletes);
+        }
+
+        synchronized void devolverPendientes(Lote lote) {
+            lote.upserts.forEach(l -> {
+                if (lineas.containsKey(l.id())) sucias.add(l.id());
+            });
+            borradas.addAll(lote.deletes);
+            conPendientes.add(this);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.miapp.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.repository.CarritoItemRepository;
+
+/**
+ * Borra periódicamente los carritos anónimos abandonados: líneas sin usuario cuya
+ * ultima_actividad es anterior a carrito.limpieza.edad-horas. Trabaja en lotes de
+ * carrito.limpieza.lote filas, cada uno en su propia transacción corta (selección por el
+ * índice de actividad y delete por id), así nunca mantiene bloqueos largos. Las líneas que
+ * están vivas en {@link CarritoStore} se dejan para no borrar bajo un carrito en uso.
+ */
+@Service
+public class CarritoSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(CarritoSweeper.class);
+
+    private final CarritoItemRepository carritoRepo;
+    private final CarritoStore carritoStore;
+    private final Duration edad;
+    private final int lote;
+    private final int maxLotes;
+
+    private final LongAdder ejecuciones = new LongAdder();
+    private final LongAdder borradasTotal = new LongAdder();
+    private volatile long borradasUltima;
+    private volatile long lotesUltima;
+    private volatile long duracionUltimaMs;
+    private volatile Instant ultimaEjecucion;
+
+    public CarritoSweeper(CarritoItemRepository carritoRepo,
+                          CarritoStore carritoStore,
+                          @Value("${carrito.limpieza.edad-horas:168}") long edadHoras,
+                          @Value("${carrito.limpieza.lote:500}") int lote,
+                          @Value("${carrito.limpieza.max-lotes:200}") int maxLotes) {
+        this.carritoRepo = carritoRepo;
+        this.carritoStore = carritoStore;
+        this.edad = Duration.ofHours(edadHoras);
+        this.lote = Math.max(1, lote);
+        this.maxLotes = Math.max(1, maxLotes);
+    }
+
+    @Scheduled(fixedDelayString = "${carrito.limpieza.intervalo-ms:3600000}", initialDelayString = "${carrito.limpieza.intervalo-ms:3600000}")
+    public void barrer() {
+        long inicio = System.nanoTime();
+        Instant limite = Instant.now().minus(edad);
+        long borradas = 0;
+        int lotes = 0;
+        // Tope de lotes por ejecución: un atraso grande se reparte entre varias ejecuciones
+        while (lotes < maxLotes) {
+            List<Long> ids = carritoRepo.findIdsAbandonados(limite, Limit.of(lote));
+            if (ids.isEmpty()) break;
+            List<Long> libres = ids.stream().filter(id -> !carritoStore.enMemoria(id)).toList();
+            int n = libres.isEmpty() ? 0 : carritoRepo.deleteAbandonados(libres, limite);
+            borradas += n;
+            lotes++;
+            // Lote incompleto, o nada borrable (en memoria o con actividad reciente): no hay más por ahora
+            if (ids.size() < lote || n == 0) break;
+        }
+
+        ejecuciones.increment();
+        borradasTotal.add(borradas);
+        borradasUltima = borradas;
+        lotesUltima = lotes;
+        duracionUltimaMs = (System.nanoTime() - inicio) / 1_000_000;
+        ultimaEjecucion = Instant.now();
+        if (borradas > 0) {
+            log.info("Limpieza de carritos: {} líneas abandonadas borradas en {} lotes ({} ms)", borradas, lotes, duracionUltimaMs);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ejecuciones", ejecuciones.sum());
+        stats.put("borradas_total", borradasTotal.sum());
+        stats.put("borradas_ultima", borradasUltima);
+        stats.put("lotes_ultima", lotesUltima);
+        stats.put("duracion_ultima_ms", duracionUltimaMs);
+        stats.put("ultima_ejecucion", ultimaEjecucion);
+        return stats;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.miapp.service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.miapp.dto.CheckoutRequest;
+import com.example.miapp.model.CarritoItem;
+import com.example.miapp.model.EstadoOrden;
+import com.example.miapp.model.Orden;
+import com.example.miapp.model.OrdenItem;
+import com.example.miapp.repository.CarritoItemRepository;
+import com.example.miapp.repository.OrdenRepository;
+
+/**
+ * Convierte un carrito en una orden dentro de una sola transacción: lee las líneas con
+ * su producto, calcula precios y total en el servidor, vacía el carrito, crea la orden
+ * e inserta todas las líneas de la orden en un único batch JDBC. El rollup de ventas se
+ * actualiza en la misma transacción. Antes de leer se escriben los cambios pendientes de
+ * {@link CarritoStore}; tras el commit las líneas consumidas se quitan también de memoria.
+ */
+@Service
+public class CheckoutService {
+
+    private static final String INSERT_ITEM_SQL =
+            "insert into orden_items (orden_id, producto_id, nombre, cantidad, precio_unitario, subtotal, categoria) values (?, ?, ?, ?, ?, ?, ?)";
+
+    private final CarritoItemRepository carritoRepo;
+    private final OrdenRepository ordenRepository;
+    private final ReferenceResolver references;
+    private final JdbcTemplate jdbcTemplate;
+    private final OrdenNumeroGenerator numeroGenerator;
+    private final VentasRollupService ventasRollup;
+    private final CarritoStore carritoStore;
+
+    public CheckoutService(CarritoItemRepository carritoRepo,
+                           OrdenRepository ordenRepository,
+                           ReferenceResolver references,
+                           JdbcTemplate jdbcTemplate,
+                           OrdenNumeroGenerator numeroGenerator,
+                           VentasRollupService ventasRollup,
+                           CarritoStore carritoStore) {
+        this.carritoRepo = carritoRepo;
+        this.ordenRepository = ordenRepository;
+        this.references = references;
+        this.jdbcTemplate = jdbcTemplate;
+        this.numeroGenerator = numeroGenerator;
+        this.ventasRollup = ventasRollup;
+        this.carritoStore = carritoStore;
+    }
+
+    @Transactional
+    public Result checkout(CheckoutRequest req) {
+        boolean porSesion = req.getSessionId() != null && !req.getSessionId().isBlank();
+        if (!porSesion && req.getUsuarioId() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "session_id o usuario_id es requerido");
+        }
+
+        carritoStore.flush();
+        List<CarritoItem> lineas = porSesion
+                ? carritoRepo.findWithProductoBySessionId(req.getSessionId())
+                : carritoRepo.findWithProductoByUsuarioId(req.getUsuarioId());
+        if (lineas.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "El carrito está vacío");
+        }
+
+        // Vaciar primero: si otro checkout ya consumió estas líneas, el conteo no coincide y se aborta
+        List<Long> lineaIds = lineas.stream().map(CarritoItem::getId).toList();
+        if (carritoRepo.deleteByIdIn(lineaIds) != lineaIds.size()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "El carrito cambió durante el checkout, reintente");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                carritoStore.olvidarLineas(lineaIds);
+            }
+        });
+
+        List<OrdenItem> items = new ArrayList<>(lineas.size());
+        double total = 0.0;
+        for (CarritoItem ci : lineas) {
+            int cantidad = (ci.getCantidad() != null && ci.getCantidad() > 0) ? ci.getCantidad() : 1;
+            double precioUnitario = Precios.precioFinal(ci.getProducto());
+            OrdenItem oi = new OrdenItem();
+            oi.setProducto(ci.getProducto());
+            oi.setCategoria(ci.getProducto().getCategoria());
+            oi.setNombre(ci.getProducto().getNombre());
+            oi.setCantidad(cantidad);
+            oi.setPrecioUnitario(precioUnitario);
+            oi.setSubtotal(precioUnitario * cantidad);
+            total += oi.getSubtotal();
+            items.add(oi);
+        }
+
+        Orden orden = new Orden();
+        orden.setNumeroOrden(req.getNumeroOrden() != null && !req.getNumeroOrden().isBlank()
+                ? req.getNumeroOrden() : numeroGenerator.nextNumeroOrden());
+        orden.setEstado(EstadoOrden.PENDIENTE.name());
+        orden.setTotal(total);
+        orden.setNombreCompleto(req.getNombreCompleto());
+        orden.setApellidos(req.getApellidos());
+        orden.setCorreo(req.getCorreo());
+        orden.setCalle(req.getCalle());
+        orden.setDepartamento(req.getDepartamento());
+        orden.setRegion(req.getRegion());
+        orden.setComuna(req.getComuna());
+        orden.setIndicaciones(req.getIndicaciones());
+        Long usuarioId = req.getUsuarioId();
+        if (usuarioId != null) {
+            orden.setUsuario(references.usuario(usuarioId));
+        }
+        // saveAndFlush: la fila de la orden debe existir antes del batch de items (FK orden_id)
+        Orden saved = ordenRepository.saveAndFlush(orden);
+
+        insertItems(saved, items);
+        ventasRollup.sumarOrden(saved.getId());
+        return new Result(saved, items);
+    }
+
+    private void insertItems(Orden orden, List<OrdenItem> items) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT_ITEM_SQL, new String[] {"id"})) {
+                for (OrdenItem oi : items) {
+                    ps.setLong(1, orden.getId());
+                    ps.setLong(2, oi.getProducto().getId());
+                    ps.setString(3, oi.getNombre());
+                    ps.setInt(4, oi.getCantidad());
+                    ps.setDouble(5, oi.getPrecioUnitario());
+                    ps.setDouble(6, oi.getSubtotal());
+                    ps.setString(7, oi.getCategoria());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    for (int i = 0; i < items.size() && keys.next(); i++) {
+                        items.get(i).setId(keys.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+        items.forEach(oi -> oi.setOrden(orden));
+    }
+
+    public static class Result {
+        private final Orden orden;
+        private final List<OrdenItem> items;
+
+        public Result(Orden orden, List<OrdenItem> items) {
+            this.orden = orden;
+            this.items = items;
+        }
+
+        public Orden getOrden() { return orden; }
+        public List<OrdenItem> getItems() { return items; }
+    }
+}
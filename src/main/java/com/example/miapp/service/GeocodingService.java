@@ -2,7 +2,23 @@ package com.example.miapp.service;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +30,19 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import com.example.miapp.model.Geocodificacion;
+import com.example.miapp.repository.GeocodificacionRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Geocodificación de direcciones con Nominatim, con caché en dos niveles por dirección
+ * normalizada: memoria (BoundedTtlCache) y la tabla geocodificacion, que sobrevive a reinicios.
+ * Los resultados negativos también se guardan, con un TTL más corto, para no repetir
+ * búsquedas de direcciones que Nominatim no encuentra. Las llamadas a Nominatim pasan por
+ * un {@link TokenBucket} y las consultas iguales simultáneas comparten una sola llamada; un
+ * error o una espera agotada no se guarda como negativo.
+ */
 @Service
 public class GeocodingService {
 
@@ -22,53 +51,286 @@ public class GeocodingService {
     private final RestTemplate restTemplate;
     private final String nominatimUrl;
     private final String userAgent;
+    private final GeocodificacionRepository geocodificacionRepository;
+    private final BoundedTtlCache<String, Optional<Location>> memoria;
+    private final Duration ttl;
+    private final Duration ttlNegativo;
+
+    private final LongAdder aciertosTabla = new LongAdder();
+    private final LongAdder resoluciones = new LongAdder();
+    private final LongAdder consultasNominatim = new LongAdder();
+    private final LongAdder compartidas = new LongAdder();
+    private final LongAdder abandonadas = new LongAdder();
+    // Consultas a Nominatim en curso por texto normalizado (single-flight)
+    private final Map<String, Consulta> enVuelo = new ConcurrentHashMap<>();
+    // Nominatim admite alrededor de una consulta por segundo
+    private final TokenBucket limite;
+    private final long maxEsperaMillis;
+    // Modo paralelo: todas las variantes de una dirección a la vez, con un plazo total
+    private final boolean paralelo;
+    private final long deadlineMillis;
+    // Hilos virtuales de las variantes en paralelo y de las consultas compartidas (single-flight)
+    private final ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor();
 
     public GeocodingService(RestTemplate restTemplate,
+                            GeocodificacionRepository geocodificacionRepository,
                             @Value("${geocoding.nominatim.url}") String nominatimUrl,
-                            @Value("${geocoding.user-agent:Miapp/1.0}") String userAgent) {
+                            @Value("${geocoding.user-agent:Miapp/1.0}") String userAgent,
+                            @Value("${geocoding.cache.max-entries:5000}") int maxEntries,
+                            @Value("${geocoding.cache.ttl-dias:30}") long ttlDias,
+                            @Value("${geocoding.cache.ttl-negativo-horas:6}") long ttlNegativoHoras,
+                            @Value("${geocoding.nominatim.por-segundo:1}") double porSegundo,
+                            @Value("${geocoding.nominatim.rafaga:1}") int rafaga,
+                            @Value("${geocoding.nominatim.max-espera-ms:30000}") long maxEsperaMillis,
+                            @Value("${geocoding.variantes.paralelo:true}") boolean paralelo,
+                            @Value("${geocoding.variantes.deadline-ms:15000}") long deadlineMillis) {
         this.restTemplate = restTemplate;
+        this.geocodificacionRepository = geocodificacionRepository;
         this.nominatimUrl = nominatimUrl;
         this.userAgent = userAgent;
+        this.ttl = Duration.ofDays(ttlDias);
+        this.ttlNegativo = Duration.ofHours(ttlNegativoHoras);
+        this.memoria = new BoundedTtlCache<>(maxEntries, ttl);
+        this.limite = new TokenBucket(porSegundo, rafaga);
+        this.maxEsperaMillis = maxEsperaMillis;
+        this.paralelo = paralelo;
+        this.deadlineMillis = deadlineMillis;
     }
 
     public Optional<Location> geocode(String address) {
-        if (address == null || address.isBlank()) {
+        String clave = TextNormalizer.normalizePhrase(address);
+        if (clave.isEmpty()) {
             return Optional.empty();
         }
 
-        String[] variants = new String[] {
-            address + ", Santiago, Chile",
-            address + ", Chile",
-            address
-        };
+        Optional<Location> cached = memoria.get(clave);
+        if (cached != null) {
+            return cached;
+        }
+
+        Optional<Location> guardada = leerTabla(clave);
+        if (guardada != null) {
+            return guardada;
+        }
+
+        resoluciones.increment();
+        try {
+            Optional<Location> loc = resolver(address.trim());
+            guardar(clave, loc);
+            return loc;
+        } catch (NominatimNoDisponible e) {
+            log.debug("Geocodificación sin resultado: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("memoria", memoria.stats());
+        stats.put("aciertos_tabla", aciertosTabla.sum());
+        stats.put("resoluciones", resoluciones.sum());
+        stats.put("consultas_nominatim", consultasNominatim.sum());
+        stats.put("compartidas", compartidas.sum());
+        stats.put("abandonadas", abandonadas.sum());
+        stats.put("limite", limite.stats());
+        return stats;
+    }
+
+    // null si no hay fila vigente; si la hay, pasa a memoria por el tiempo que le queda
+    private Optional<Location> leerTabla(String clave) {
+        try {
+            Optional<Geocodificacion> fila = geocodificacionRepository.findById(clave);
+            if (fila.isEmpty()) return null;
+            Geocodificacion g = fila.get();
+            Duration restante = Duration.between(Instant.now(), g.getExpiraEn());
+            if (restante.isNegative() || restante.isZero()) return null;
+            Optional<Location> loc = (g.getLatitud() != null && g.getLongitud() != null)
+                    ? Optional.of(new Location(g.getLatitud(), g.getLongitud()))
+                    : Optional.empty();
+            memoria.put(clave, loc, restante);
+            aciertosTabla.increment();
+            return loc;
+        } catch (Exception e) {
+            // La caché persistente es opcional: si la base falla se consulta a Nominatim
+            log.debug("Lectura de geocodificacion falló para '{}': {}", clave, e.toString());
+            return null;
+        }
+    }
+
+    private void guardar(String clave, Optional<Location> loc) {
+        Duration vida = loc.isPresent() ? ttl : ttlNegativo;
+        memoria.put(clave, loc, vida);
+        try {
+            geocodificacionRepository.save(new Geocodificacion(clave,
+                    loc.map(Location::getLat).orElse(null),
+                    loc.map(Location::getLon).orElse(null),
+                    Instant.now().plus(vida)));
+        } catch (Exception e) {
+            // Otra instancia pudo guardar la misma dirección al mismo tiempo; queda en memoria igual
+            log.debug("No se pudo guardar geocodificacion de '{}': {}", clave, e.toString());
+        }
+    }
+
+    private Optional<Location> resolver(String address) {
+        return paralelo ? resolverEnParalelo(address) : resolverEnSerie(address);
+    }
 
-        for (String attempt : variants) {
-            Optional<Location> loc = geocodeOnce(attempt);
-            if (loc.isPresent()) {
-                log.info("Geocoded '{}' -> {}", attempt, loc.get());
-                return loc;
-            } else {
+    private Optional<Location> resolverEnSerie(String address) {
+        boolean incompleto = false;
+        for (String attempt : variantes(address)) {
+            try {
+                Optional<Location> loc = geocodeOnce(attempt);
+                if (loc.isPresent()) {
+                    log.info("Geocoded '{}' -> {}", attempt, loc.get());
+                    return loc;
+                }
                 log.debug("Geocoding attempt failed for '{}', trying next variant", attempt);
+            } catch (NominatimNoDisponible e) {
+                incompleto = true;
             }
         }
+        // Si alguna variante quedó sin respuesta no se sabe si la dirección existe: no se guarda como negativo
+        if (incompleto) {
+            throw new NominatimNoDisponible("Sin respuesta de Nominatim para '" + address + "'");
+        }
+        return Optional.empty();
+    }
 
-        // As last resort, try plain tokenization of address parts (comma-joined)
+    /**
+     * Lanza todas las variantes a la vez en hilos virtuales y devuelve el éxito de mayor
+     * prioridad: se espera cada variante en orden y la primera con resultado cancela el resto.
+     * Una variante cancelada deja de esperar su consulta compartida; si nadie más la espera y
+     * aún no tiene turno del TokenBucket, la consulta se abandona sin gastar cuota de Nominatim
+     * (ver {@link #geocodeOnce}).
+     */
+    private Optional<Location> resolverEnParalelo(String address) {
+        List<String> variantes = variantes(address);
+        List<Future<Optional<Location>>> futuros = new ArrayList<>(variantes.size());
+        for (String v : variantes) {
+            futuros.add(hilos.submit(() -> geocodeOnce(v)));
+        }
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        boolean incompleto = false;
         try {
-            String[] parts = address.split(",\\s*");
-            for (int i = 0; i < parts.length; i++) {
-                String joined = String.join(", ", java.util.Arrays.copyOfRange(parts, i, parts.length)) + ", Chile";
-                Optional<Location> loc = geocodeOnce(joined);
-                if (loc.isPresent()) return loc;
+            for (int i = 0; i < futuros.size(); i++) {
+                try {
+                    Optional<Location> loc = futuros.get(i).get(limite - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (loc.isPresent()) {
+                        log.info("Geocoded '{}' -> {}", variantes.get(i), loc.get());
+                        return loc;
+                    }
+                } catch (ExecutionException e) {
+                    incompleto = true;
+                } catch (TimeoutException e) {
+                    // Plazo vencido: se usa la mejor variante que ya haya respondido, si hay alguna
+                    incompleto = true;
+                    for (int j = i + 1; j < futuros.size(); j++) {
+                        Future<Optional<Location>> f = futuros.get(j);
+                        if (f.state() == Future.State.SUCCESS && f.resultNow().isPresent()) {
+                            return f.resultNow();
+                        }
+                    }
+                    break;
+                }
             }
-        } catch (Exception ignored) {}
-
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NominatimNoDisponible("Interrumpido geocodificando '" + address + "'");
+        } finally {
+            futuros.forEach(f -> f.cancel(true));
+        }
+        if (incompleto) {
+            throw new NominatimNoDisponible("Sin respuesta de Nominatim para '" + address + "'");
+        }
         return Optional.empty();
     }
 
+    @PreDestroy
+    public void shutdown() {
+        hilos.shutdownNow();
+    }
+
+    // Variantes en orden de preferencia, sin repetir la misma consulta normalizada
+    private static List<String> variantes(String address) {
+        Map<String, String> variantes = new LinkedHashMap<>();
+        for (String v : new String[] {address + ", Santiago, Chile", address + ", Chile", address}) {
+            variantes.putIfAbsent(TextNormalizer.normalizePhrase(v), v);
+        }
+        // As last resort, try plain tokenization of address parts (comma-joined)
+        String[] parts = address.split(",\\s*");
+        for (int i = 0; i < parts.length; i++) {
+            String joined = String.join(", ", Arrays.copyOfRange(parts, i, parts.length)) + ", Chile";
+            variantes.putIfAbsent(TextNormalizer.normalizePhrase(joined), joined);
+        }
+        return List.copyOf(variantes.values());
+    }
+
+    /**
+     * Una consulta a Nominatim. Consultas iguales (normalizadas) que llegan mientras otra está
+     * en curso esperan el resultado de esa en vez de hacer su propia llamada. La llamada compartida
+     * corre como tarea propia y cuenta a quienes la esperan: un llamador cancelado (p. ej. una
+     * variante perdedora del modo paralelo) solo deja de esperar, y cuando se va el último antes
+     * de que la tarea tenga turno, la tarea se interrumpe en la cola del TokenBucket (o devuelve
+     * el token si ya lo tenía) y no llama a Nominatim.
+     */
     private Optional<Location> geocodeOnce(String address) {
+        String clave = TextNormalizer.normalizePhrase(address);
+        Consulta[] nueva = new Consulta[1];
+        Consulta consulta = enVuelo.compute(clave, (k, actual) -> {
+            if (actual != null && actual.unirse()) return actual;
+            nueva[0] = new Consulta();
+            return nueva[0];
+        });
+        if (consulta != nueva[0]) {
+            compartidas.increment();
+        } else {
+            consulta.iniciar(hilos.submit(() -> {
+                try {
+                    consulta.resultado.complete(consultar(address, consulta));
+                } catch (RuntimeException e) {
+                    consulta.resultado.completeExceptionally(e);
+                } finally {
+                    enVuelo.remove(clave, consulta);
+                }
+            }));
+        }
+        return esperar(consulta, clave, address);
+    }
+
+    private Optional<Location> esperar(Consulta consulta, String clave, String address) {
         try {
-                // Restrict results to Chile to avoid ambiguous matches in other countries
-                String url = nominatimUrl + "/search?q=" + URLEncoder.encode(address, StandardCharsets.UTF_8)
+            return consulta.resultado.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (consulta.dejar()) {
+                abandonadas.increment();
+                enVuelo.remove(clave, consulta);
+            }
+            throw new NominatimNoDisponible("Interrumpido esperando geocodificación de '" + address + "'");
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof NominatimNoDisponible nd) ? nd
+                    : new NominatimNoDisponible(e.getCause().toString());
+        }
+    }
+
+    private Optional<Location> consultar(String address, Consulta consulta) {
+        try {
+            if (!limite.adquirir(maxEsperaMillis, TimeUnit.MILLISECONDS)) {
+                throw new NominatimNoDisponible("Sin turno de Nominatim para '" + address + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NominatimNoDisponible("Interrumpido esperando turno de Nominatim");
+        }
+        // Abandonada mientras esperaba turno: el token vuelve al bucket para la siguiente consulta
+        if (!consulta.tomarTurno()) {
+            limite.devolver();
+            throw new NominatimNoDisponible("Consulta abandonada para '" + address + "'");
+        }
+        consultasNominatim.increment();
+        try {
+            // Restrict results to Chile to avoid ambiguous matches in other countries
+            String url = nominatimUrl + "/search?q=" + URLEncoder.encode(address, StandardCharsets.UTF_8)
                     + "&format=json&limit=1&countrycodes=cl&accept-language=es";
             HttpHeaders headers = new HttpHeaders();
             headers.set("User-Agent", userAgent);
@@ -79,10 +341,55 @@ public class GeocodingService {
                 NominatimResult r = body[0];
                 return Optional.of(new Location(Double.parseDouble(r.lat), Double.parseDouble(r.lon)));
             }
+            return Optional.empty();
         } catch (Exception e) {
             log.debug("Geocoding failed for '{}' with exception: {}", address, e.toString());
+            throw new NominatimNoDisponible(e.toString());
+        }
+    }
+
+    /**
+     * Consulta compartida en curso. Lleva la cuenta de quienes la esperan; se abandona cuando el
+     * último deja de esperar antes de que la tarea obtenga turno. Una vez con turno la llamada
+     * sigue hasta el final aunque nadie espere.
+     */
+    private static final class Consulta {
+        final CompletableFuture<Optional<Location>> resultado = new CompletableFuture<>();
+        private int esperando = 1;
+        private boolean conTurno;
+        private boolean abandonada;
+        private Future<?> tarea;
+
+        synchronized boolean unirse() {
+            if (abandonada) return false;
+            esperando++;
+            return true;
+        }
+
+        synchronized void iniciar(Future<?> tarea) {
+            this.tarea = tarea;
+        }
+
+        // true si la consulta queda abandonada con esta salida
+        synchronized boolean dejar() {
+            if (--esperando > 0 || conTurno || resultado.isDone()) return false;
+            abandonada = true;
+            if (tarea != null) tarea.cancel(true);
+            return true;
+        }
+
+        synchronized boolean tomarTurno() {
+            if (abandonada) return false;
+            conTurno = true;
+            return true;
+        }
+    }
+
+    // Error o falta de turno: el resultado es desconocido, no un "no encontrado"
+    private static class NominatimNoDisponible extends RuntimeException {
+        NominatimNoDisponible(String mensaje) {
+            super(mensaje, null, false, false);
         }
-        return Optional.empty();
     }
 
     // Minimal mapping for Nominatim JSON
@@ -0,0 +1,72 @@
+package com.example.miapp.service;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.model.MeteoredUbicacion;
+import com.example.miapp.repository.MeteoredUbicacionRepository;
+
+/**
+ * Directorio comuna/región -> hash de Meteored. Se carga completo desde la tabla
+ * meteored_ubicacion al arrancar y se completa con cada búsqueda por texto que encuentra
+ * un hash nuevo en Chile, así WeatherService consulta el pronóstico sin pasar por la búsqueda.
+ */
+@Service
+public class MeteoredDirectorio {
+
+    private static final Logger log = LoggerFactory.getLogger(MeteoredDirectorio.class);
+
+    private final MeteoredUbicacionRepository ubicacionRepository;
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    public MeteoredDirectorio(MeteoredUbicacionRepository ubicacionRepository) {
+        this.ubicacionRepository = ubicacionRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        ubicacionRepository.findAll().forEach(u -> hashes.put(u.getTexto(), u.getHash()));
+        log.info("Directorio de ubicaciones Meteored cargado: {} entradas", hashes.size());
+    }
+
+    /** Hash conocido para el texto (ya normalizado), o null. */
+    public String hash(String texto) {
+        String hash = hashes.get(texto);
+        if (hash != null) {
+            aciertos.increment();
+        } else {
+            fallos.increment();
+        }
+        return hash;
+    }
+
+    public void guardar(String texto, String hash) {
+        if (texto.isEmpty() || hash == null || hash.equals(hashes.put(texto, hash))) return;
+        try {
+            ubicacionRepository.save(new MeteoredUbicacion(texto, hash, Instant.now()));
+        } catch (Exception e) {
+            // Otra instancia pudo guardar el mismo texto; en memoria ya quedó
+            log.debug("No se pudo guardar la ubicación Meteored de '{}': {}", texto, e.toString());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entradas", hashes.size());
+        stats.put("aciertos", aciertos.sum());
+        stats.put("fallos", fallos.sum());
+        return stats;
+    }
+}
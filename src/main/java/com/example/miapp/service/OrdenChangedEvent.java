@@ -0,0 +1,54 @@
+package com.example.miapp.service;
+
+import java.time.Instant;
+
+import com.example.miapp.model.Orden;
+
+/**
+ * Evento publicado por los controladores de orden después de crear, modificar o eliminar
+ * una orden (incluidas las transiciones de estado). Lo consume {@link OrdenEventStream}
+ * para notificar por SSE a los clientes suscritos; también es el cuerpo de cada mensaje.
+ */
+public class OrdenChangedEvent {
+
+    public enum Tipo { CREADA, ACTUALIZADA, ELIMINADA }
+
+    private final Tipo tipo;
+    private final Long ordenId;
+    private final String numeroOrden;
+    private final String estado;
+    private final Long version;
+    private final Instant fecha = Instant.now();
+
+    private OrdenChangedEvent(Tipo tipo, Long ordenId, String numeroOrden, String estado, Long version) {
+        this.tipo = tipo;
+        this.ordenId = ordenId;
+        this.numeroOrden = numeroOrden;
+        this.estado = estado;
+        this.version = version;
+    }
+
+    public static OrdenChangedEvent created(Orden orden) {
+        return new OrdenChangedEvent(Tipo.CREADA, orden.getId(), orden.getNumeroOrden(), orden.getEstado(), orden.getVersion());
+    }
+
+    public static OrdenChangedEvent updated(Orden orden) {
+        return new OrdenChangedEvent(Tipo.ACTUALIZADA, orden.getId(), orden.getNumeroOrden(), orden.getEstado(), orden.getVersion());
+    }
+
+    // Transición aplicada con un UPDATE directo: no se conoce el número de orden
+    public static OrdenChangedEvent estadoChanged(Long ordenId, String estado, Long version) {
+        return new OrdenChangedEvent(Tipo.ACTUALIZADA, ordenId, null, estado, version);
+    }
+
+    public static OrdenChangedEvent deleted(Long ordenId) {
+        return new OrdenChangedEvent(Tipo.ELIMINADA, ordenId, null, null, null);
+    }
+
+    public Tipo getTipo() { return tipo; }
+    public Long getOrdenId() { return ordenId; }
+    public String getNumeroOrden() { return numeroOrden; }
+    public String getEstado() { return estado; }
+    public Long getVersion() { return version; }
+    public Instant getFecha() { return fecha; }
+}
@@ -0,0 +1,317 @@
+package com.example.miapp.service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.model.EstadoEnriquecimiento;
+import com.example.miapp.model.Orden;
+import com.example.miapp.repository.OrdenRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Enriquecimiento de órdenes en segundo plano: geocodifica la dirección (GeocodingService),
+ * consulta el pronóstico (WeatherService) y guarda en la orden la viabilidad de entrega.
+ * Las órdenes entran a una cola acotada; un despachador toma lotes y los procesa en dos
+ * etapas (geocodificación, luego clima) con hilos virtuales, consultando una sola vez cada
+ * dirección y cada ubicación distinta del lote, y escribe el lote en un único batch JDBC.
+ * Si la cola está llena la orden queda PENDIENTE en la base y la recoge el barrido periódico,
+ * que también retoma lo pendiente después de un reinicio. Solo un pronóstico real completa la
+ * orden: si el clima falla o no responde a tiempo, la orden se reintenta con backoff exponencial
+ * y tras enriquecimiento.reintentos.max intentos queda FALLIDO.
+ */
+@Service
+public class OrdenEnrichmentPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(OrdenEnrichmentPipeline.class);
+
+    private static final String UPDATE_SQL = "update orden set latitud = ?, longitud = ?, clima_resumen = ?, "
+            + "probabilidad_lluvia = ?, entrega_viable = ?, clima_consultado_en = ?, enriquecimiento = ?, "
+            + "enriquecimiento_intentos = 0, enriquecimiento_reintento_en = null where id = ?";
+    // Sin pronóstico: la orden sigue PENDIENTE hasta el próximo reintento, o queda FALLIDO si se agotaron
+    private static final String REINTENTO_SQL = "update orden set enriquecimiento = ?, enriquecimiento_intentos = ?, "
+            + "enriquecimiento_reintento_en = ? where id = ?";
+
+    private final OrdenRepository ordenRepository;
+    private final GeocodingService geocodingService;
+    private final WeatherService weatherService;
+    private final JdbcTemplate jdbcTemplate;
+    private final double precipitationThreshold;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final int maxIntentos;
+    private final long reintentoBaseMillis;
+
+    private final BlockingQueue<Long> cola;
+    // Ids en cola, para no encolar dos veces la misma orden
+    private final Set<Long> encolados = ConcurrentHashMap.newKeySet();
+    // Ids del lote en curso: el barrido no los vuelve a encolar mientras su resultado no esté escrito
+    private final Set<Long> enProceso = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    // Limita las llamadas HTTP simultáneas hacia los servicios externos
+    private final Semaphore llamadas;
+    private volatile boolean running;
+    private Thread despachador;
+
+    private final LongAdder procesadas = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final LongAdder reintentos = new LongAdder();
+    private final LongAdder fallidas = new LongAdder();
+
+    public OrdenEnrichmentPipeline(OrdenRepository ordenRepository,
+                                   GeocodingService geocodingService,
+                                   WeatherService weatherService,
+                                   JdbcTemplate jdbcTemplate,
+                                   @Value("${delivery.precipitation.threshold:0.5}") double precipitationThreshold,
+                                   @Value("${enriquecimiento.cola:1000}") int capacidad,
+                                   @Value("${enriquecimiento.lote:20}") int batchSize,
+                                   @Value("${enriquecimiento.concurrencia:4}") int concurrencia,
+                                   @Value("${enriquecimiento.timeout-ms:20000}") long timeoutMillis,
+                                   @Value("${enriquecimiento.reintentos.max:5}") int maxIntentos,
+                                   @Value("${enriquecimiento.reintentos.base-ms:60000}") long reintentoBaseMillis) {
+        this.ordenRepository = ordenRepository;
+        this.geocodingService = geocodingService;
+        this.weatherService = weatherService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.precipitationThreshold = precipitationThreshold;
+        this.cola = new ArrayBlockingQueue<>(capacidad);
+        this.batchSize = Math.max(1, batchSize);
+        this.llamadas = new Semaphore(Math.max(1, concurrencia));
+        this.timeoutMillis = timeoutMillis;
+        this.maxIntentos = Math.max(1, maxIntentos);
+        this.reintentoBaseMillis = reintentoBaseMillis;
+    }
+
+    /** Encola una orden sin bloquear; false si ya estaba en cola o la cola está llena. */
+    public boolean submit(Long ordenId) {
+        if (ordenId == null || !encolados.add(ordenId)) {
+            return false;
+        }
+        if (!cola.offer(ordenId)) {
+            encolados.remove(ordenId);
+            rechazadas.increment();
+            return false;
+        }
+        return true;
+    }
+
+    @EventListener
+    public void onOrdenChanged(OrdenChangedEvent event) {
+        if (event.getTipo() == OrdenChangedEvent.Tipo.CREADA) {
+            submit(event.getOrdenId());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        despachador = Thread.ofVirtual().name("orden-enrichment").start(this::despachar);
+    }
+
+    @Scheduled(fixedDelayString = "${enriquecimiento.barrido-ms:60000}", initialDelayString = "${enriquecimiento.barrido-ms:60000}")
+    public void barrido() {
+        int libres = cola.remainingCapacity();
+        if (!running || libres == 0) return;
+        ordenRepository.findIdsParaEnriquecer(EstadoEnriquecimiento.PENDIENTE, Instant.now(), Limit.of(libres))
+                .stream().filter(id -> !enProceso.contains(id))
+                .forEach(this::submit);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("en_cola", cola.size());
+        stats.put("capacidad", cola.size() + cola.remainingCapacity());
+        stats.put("procesadas", procesadas.sum());
+        stats.put("rechazadas", rechazadas.sum());
+        stats.put("errores", errores.sum());
+        stats.put("reintentos", reintentos.sum());
+        stats.put("fallidas", fallidas.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (despachador != null) despachador.interrupt();
+        workers.shutdownNow();
+    }
+
+    private void despachar() {
+        List<Long> lote = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Long primero = cola.poll(1, TimeUnit.SECONDS);
+                if (primero == null) continue;
+                lote.add(primero);
+                cola.drainTo(lote, batchSize - 1);
+                // Se liberan antes de procesar: un cambio de dirección durante el lote vuelve a encolar la orden
+                enProceso.addAll(lote);
+                lote.forEach(encolados::remove);
+                procesarLote(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Las órdenes del lote siguen PENDIENTE en la base; el barrido las reintenta
+                errores.increment();
+                log.warn("Enriquecimiento de órdenes {} falló: {}", lote, e.toString());
+            } finally {
+                lote.forEach(enProceso::remove);
+                lote.clear();
+            }
+        }
+    }
+
+    private void procesarLote(List<Long> ids) throws InterruptedException {
+        List<Orden> ordenes = ordenRepository.findAllById(ids);
+        if (ordenes.isEmpty()) return;
+
+        // Etapa 1: una geocodificación por dirección distinta
+        Map<String, Future<Optional<Location>>> geo = new HashMap<>();
+        for (Orden orden : ordenes) {
+            String direccion = direccion(orden);
+            if (!direccion.isEmpty()) {
+                geo.computeIfAbsent(direccion, d -> workers.submit(limitado(() -> geocodingService.geocode(d))));
+            }
+        }
+
+        // Etapa 2: un pronóstico por ubicación distinta (coordenadas redondeadas, o texto si no se pudo geocodificar)
+        Map<Long, Optional<Location>> ubicaciones = new HashMap<>();
+        Map<String, Future<WeatherResult>> clima = new HashMap<>();
+        Map<Long, String> claveClima = new HashMap<>();
+        for (Orden orden : ordenes) {
+            Future<Optional<Location>> f = geo.get(direccion(orden));
+            Optional<Location> loc = (f != null) ? esperar(f, Optional.empty()) : Optional.empty();
+            ubicaciones.put(orden.getId(), loc);
+            String clave;
+            if (loc.isPresent()) {
+                Location l = loc.get();
+                clave = String.format(Locale.ROOT, "%.2f,%.2f", l.getLat(), l.getLon());
+                clima.computeIfAbsent(clave, k -> workers.submit(limitado(() -> weatherService.getWeather(l.getLat(), l.getLon()))));
+            } else {
+                String texto = textoBusqueda(orden);
+                clave = "txt:" + texto;
+                clima.computeIfAbsent(clave, k -> workers.submit(limitado(() -> weatherService.getWeatherByText(texto))));
+            }
+            claveClima.put(orden.getId(), clave);
+        }
+
+        // Etapa 3: un único batch de escritura para todo el lote (completadas) y otro para los reintentos
+        Instant ahora = Instant.now();
+        List<Object[]> filas = new ArrayList<>(ordenes.size());
+        List<Object[]> sinClima = new ArrayList<>();
+        for (Orden orden : ordenes) {
+            WeatherResult wr = esperar(clima.get(claveClima.get(orden.getId())), new WeatherResult("Error consultando clima", null));
+            if (!wr.isDisponible()) {
+                sinClima.add(reintento(orden, ahora));
+                continue;
+            }
+            Optional<Location> loc = ubicaciones.get(orden.getId());
+            Double prob = wr.getPrecipitationProbability();
+            boolean viable = prob < precipitationThreshold;
+            filas.add(new Object[] {
+                    loc.map(Location::getLat).orElse(null),
+                    loc.map(Location::getLon).orElse(null),
+                    wr.getWeatherSummary(),
+                    prob,
+                    viable,
+                    Timestamp.from(ahora),
+                    EstadoEnriquecimiento.COMPLETADO.name(),
+                    orden.getId()
+            });
+        }
+        if (!filas.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, filas, new int[] {
+                    Types.DOUBLE, Types.DOUBLE, Types.VARCHAR, Types.DOUBLE, Types.BOOLEAN, Types.TIMESTAMP, Types.VARCHAR, Types.BIGINT
+            });
+        }
+        if (!sinClima.isEmpty()) {
+            jdbcTemplate.batchUpdate(REINTENTO_SQL, sinClima, new int[] {Types.VARCHAR, Types.INTEGER, Types.TIMESTAMP, Types.BIGINT});
+        }
+        procesadas.add(filas.size());
+    }
+
+    // Backoff exponencial: base, 2x base, 4x base... hasta agotar los intentos
+    private Object[] reintento(Orden orden, Instant ahora) {
+        int intentos = (orden.getEnriquecimientoIntentos() != null ? orden.getEnriquecimientoIntentos() : 0) + 1;
+        if (intentos >= maxIntentos) {
+            fallidas.increment();
+            log.warn("Orden {} sin pronóstico tras {} intentos: queda FALLIDO", orden.getId(), intentos);
+            return new Object[] {EstadoEnriquecimiento.FALLIDO.name(), intentos, null, orden.getId()};
+        }
+        reintentos.increment();
+        long espera = reintentoBaseMillis << Math.min(intentos - 1, 20);
+        return new Object[] {EstadoEnriquecimiento.PENDIENTE.name(), intentos, Timestamp.from(ahora.plusMillis(espera)), orden.getId()};
+    }
+
+    private <T> Callable<T> limitado(Callable<T> llamada) {
+        return () -> {
+            llamadas.acquire();
+            try {
+                return llamada.call();
+            } finally {
+                llamadas.release();
+            }
+        };
+    }
+
+    private <T> T esperar(Future<T> future, T siFalla) throws InterruptedException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(true);
+            log.debug("Llamada externa de enriquecimiento sin resultado: {}", e.toString());
+            return siFalla;
+        }
+    }
+
+    private static String direccion(Orden orden) {
+        StringBuilder sb = new StringBuilder();
+        for (String parte : new String[] {orden.getCalle(), orden.getComuna(), orden.getRegion()}) {
+            if (parte != null && !parte.isBlank()) {
+                if (sb.length() > 0) sb.append(", ");
+                sb.append(parte.trim());
+            }
+        }
+        return sb.toString();
+    }
+
+    // Búsqueda por texto en Meteored: comuna, si no región, si no la dirección completa
+    private static String textoBusqueda(Orden orden) {
+        if (orden.getComuna() != null && !orden.getComuna().isBlank()) return orden.getComuna();
+        if (orden.getRegion() != null && !orden.getRegion().isBlank()) return orden.getRegion();
+        return direccion(orden);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.miapp.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Difusión por Server-Sent Events de los cambios de órdenes ({@link OrdenChangedEvent}).
+ * Cada suscriptor es un SseEmitter (servlet asíncrono: una conexión inactiva no ocupa hilo)
+ * con una cola acotada propia; si un cliente lento la llena se descartan los mensajes más
+ * antiguos y el publicador nunca se bloquea. Las colas se vacían en hilos virtuales, uno por
+ * suscriptor a la vez. Un latido periódico mantiene viva la conexión y detecta clientes caídos.
+ * Los últimos eventos se guardan para reenviarlos a quien reconecta con Last-Event-ID.
+ */
+@Service
+public class OrdenEventStream {
+
+    private static final Object HEARTBEAT = new Object();
+
+    private final int bufferSize;
+    private final long timeoutMillis;
+    private final int replaySize;
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Set<Suscriptor> todas = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Set<Suscriptor>> porOrden = new ConcurrentHashMap<>();
+    // Protegido por synchronized(replay): secuencia, historial y reparto quedan en el mismo orden
+    private final ArrayDeque<Envio> replay = new ArrayDeque<>();
+    private long secuencia;
+
+    private final LongAdder publicados = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+
+    public OrdenEventStream(@Value("${orden.eventos.buffer:64}") int bufferSize,
+                            @Value("${orden.eventos.timeout-ms:1800000}") long timeoutMillis,
+                            @Value("${orden.eventos.replay:256}") int replaySize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("orden.eventos.buffer debe ser mayor a 0");
+        }
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.replaySize = Math.max(0, replaySize);
+    }
+
+    /**
+     * Registra un suscriptor. Con ordenId solo recibe los eventos de esa orden; lastEventId
+     * (cabecera Last-Event-ID) reenvía primero los eventos posteriores que sigan en el historial.
+     */
+    public SseEmitter subscribe(Long ordenId, Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Suscriptor s = new Suscriptor(ordenId, emitter);
+        emitter.onCompletion(() -> remove(s));
+        emitter.onTimeout(() -> remove(s));
+        emitter.onError(e -> remove(s));
+
+        synchronized (replay) {
+            if (lastEventId != null) {
+                for (Envio envio : replay) {
+                    if (envio.id() > lastEventId && s.acepta(envio.evento())) {
+                        s.encolar(envio);
+                    }
+                }
+            }
+            if (ordenId == null) {
+                todas.add(s);
+            } else {
+                porOrden.computeIfAbsent(ordenId, k -> ConcurrentHashMap.newKeySet()).add(s);
+            }
+        }
+        return emitter;
+    }
+
+    @EventListener
+    public void onOrdenChanged(OrdenChangedEvent event) {
+        publicados.increment();
+        synchronized (replay) {
+            Envio envio = new Envio(++secuencia, event);
+            if (replaySize > 0) {
+                if (replay.size() >= replaySize) replay.pollFirst();
+                replay.addLast(envio);
+            }
+            todas.forEach(s -> s.encolar(envio));
+            Set<Suscriptor> deLaOrden = porOrden.get(event.getOrdenId());
+            if (deLaOrden != null) deLaOrden.forEach(s -> s.encolar(envio));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${orden.eventos.heartbeat-ms:15000}")
+    public void heartbeat() {
+        todas.forEach(Suscriptor::latido);
+        porOrden.values().forEach(set -> set.forEach(Suscriptor::latido));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("suscriptores", todas.size() + porOrden.values().stream().mapToInt(Set::size).sum());
+        stats.put("ordenes_observadas", porOrden.size());
+        stats.put("publicados", publicados.sum());
+        stats.put("descartados", descartados.sum());
+        stats.put("buffer", bufferSize);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<Suscriptor> activos = new ArrayList<>(todas);
+        porOrden.values().forEach(activos::addAll);
+        activos.forEach(s -> s.emitter.complete());
+        senders.shutdown();
+    }
+
+    private void remove(Suscriptor s) {
+        s.cerrado = true;
+        if (s.ordenId == null) {
+            todas.remove(s);
+        } else {
+            porOrden.computeIfPresent(s.ordenId, (k, set) -> {
+                set.remove(s);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private record Envio(long id, OrdenChangedEvent evento) { }
+
+    private final class Suscriptor {
+        final Long ordenId;
+        final SseEmitter emitter;
+        // Protegida por synchronized(this)
+        final ArrayDeque<Object> cola = new ArrayDeque<>();
+        final AtomicBoolean enviando = new AtomicBoolean();
+        volatile boolean cerrado;
+
+        Suscriptor(Long ordenId, SseEmitter emitter) {
+            this.ordenId = ordenId;
+            this.emitter = emitter;
+        }
+
+        boolean acepta(OrdenChangedEvent evento) {
+            return ordenId == null || ordenId.equals(evento.getOrdenId());
+        }
+
+        void encolar(Object item) {
+            if (cerrado) return;
+            synchronized (this) {
+                if (cola.size() >= bufferSize) {
+                    cola.pollFirst();
+                    descartados.increment();
+                }
+                cola.addLast(item);
+            }
+            programarEnvio();
+        }
+
+        // Solo si no hay nada pendiente: un mensaje en camino ya sirve de latido
+        void latido() {
+            if (cerrado) return;
+            synchronized (this) {
+                if (!cola.isEmpty()) return;
+                cola.addLast(HEARTBEAT);
+            }
+            programarEnvio();
+        }
+
+        private void programarEnvio() {
+            if (enviando.compareAndSet(false, true)) {
+                senders.execute(this::vaciar);
+            }
+        }
+
+        private void vaciar() {
+            try {
+                Object item;
+                while (!cerrado && (item = siguiente()) != null) {
+                    enviar(item);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Cliente desconectado o emitter ya completado
+                remove(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                enviando.set(false);
+            }
+            // Lo encolado entre el último poll y liberar el flag se envía en otra pasada
+            synchronized (this) {
+                if (cola.isEmpty()) return;
+            }
+            programarEnvio();
+        }
+
+        private synchronized Object siguiente() {
+            return cola.pollFirst();
+        }
+
+        private void enviar(Object item) throws IOException {
+            if (item == HEARTBEAT) {
+                emitter.send(SseEmitter.event().comment("latido"));
+                return;
+            }
+            Envio envio = (Envio) item;
+            emitter.send(SseEmitter.event()
+                    .id(Long.toString(envio.id()))
+                    .name(envio.evento().getTipo().name().toLowerCase(Locale.ROOT))
+                    .data(envio.evento(), MediaType.APPLICATION_JSON));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.miapp.service;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Service;
+
+/**
+ * Generador de números de orden sin bloqueo, estilo Snowflake:
+ * 41 bits de milisegundos desde 2024-01-01, 10 bits de nodo y 12 bits de secuencia
+ * (hasta 4096 números por milisegundo y por instancia). El estado (milisegundo + secuencia)
+ * vive en un único AtomicLong que se avanza con CAS; si la secuencia se desborda, o si el
+ * reloj retrocede, el acarreo avanza el milisegundo lógico, así los números nunca se repiten
+ * ni retroceden dentro de una instancia. Cada instancia debe tener un orden.numero.node-id distinto:
+ * fuera del perfil dev la aplicación no arranca sin él, porque el nodo derivado del host y el
+ * proceso cabe en 10 bits y dos instancias pueden coincidir.
+ */
+@Service
+public class OrdenNumeroGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(OrdenNumeroGenerator.class);
+
+    private static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final String PREFIX = "ORD-";
+
+    private final long nodeId;
+    private final LongSupplier reloj;
+    // (milisegundo lógico << SEQUENCE_BITS) | secuencia
+    private final AtomicLong state = new AtomicLong();
+
+    @Autowired
+    public OrdenNumeroGenerator(@Value("${orden.numero.node-id:-1}") long nodeId, Environment env) {
+        this(nodeIdConfigurado(nodeId, env), System::currentTimeMillis);
+    }
+
+    public OrdenNumeroGenerator(long nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    // Reloj inyectable para probar el acarreo de la secuencia y el reloj que retrocede
+    OrdenNumeroGenerator(long nodeId, LongSupplier reloj) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("orden.numero.node-id debe estar entre 0 y " + MAX_NODE);
+        }
+        this.nodeId = nodeId;
+        this.reloj = reloj;
+    }
+
+    public long nextId() {
+        while (true) {
+            long current = state.get();
+            long now = reloj.getAsLong() - EPOCH_MILLIS;
+            long next = (now > (current >>> SEQUENCE_BITS))
+                    ? now << SEQUENCE_BITS
+                    : current + 1; // mismo milisegundo (o reloj atrasado): la secuencia acarrea al milisegundo
+            if (state.compareAndSet(current, next)) {
+                long millis = next >>> SEQUENCE_BITS;
+                return (millis << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // Formato legible y de largo fijo por décadas: ORD-<id en base 36>
+    public String nextNumeroOrden() {
+        return PREFIX + Long.toString(nextId(), 36).toUpperCase(Locale.ROOT);
+    }
+
+    // Sin node-id solo se tolera en dev, donde corre una sola instancia
+    static long nodeIdConfigurado(long nodeId, Environment env) {
+        if (nodeId >= 0) {
+            return nodeId;
+        }
+        if (!env.acceptsProfiles(Profiles.of("dev"))) {
+            throw new IllegalStateException("orden.numero.node-id (ORDEN_NODE_ID) no configurado. "
+                    + "Defina un valor entre 0 y " + MAX_NODE + " distinto en cada instancia");
+        }
+        long derivado = defaultNodeId();
+        log.warn("orden.numero.node-id no configurado; perfil dev: usando {} derivado del host y el proceso", derivado);
+        return derivado;
+    }
+
+    private static long defaultNodeId() {
+        String seed;
+        try {
+            seed = InetAddress.getLocalHost().getHostName() + "/" + ManagementFactory.getRuntimeMXBean().getName();
+        } catch (Exception e) {
+            seed = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        return (seed.hashCode() & 0x7fffffff) % (MAX_NODE + 1);
+    }
+}
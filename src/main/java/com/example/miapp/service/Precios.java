@@ -0,0 +1,21 @@
+package com.example.miapp.service;
+
+import com.example.miapp.model.Producto;
+
+/**
+ * Reglas de precio del catálogo, compartidas por el checkout y el carrito.
+ * Producto.descuento es un porcentaje (0-100) y solo se aplica cuando el producto está en oferta.
+ */
+public final class Precios {
+
+    private Precios() { }
+
+    public static double precioFinal(Producto p) {
+        double precio = p.getPrecio() != null ? p.getPrecio() : 0.0;
+        Double descuento = p.getDescuento();
+        if (p.isOferta() && descuento != null && descuento > 0) {
+            precio = precio * (1.0 - Math.min(descuento, 100.0) / 100.0);
+        }
+        return precio;
+    }
+}
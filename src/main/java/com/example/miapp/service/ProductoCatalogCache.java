@@ -0,0 +1,108 @@
+package com.example.miapp.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.ProductoRepository;
+
+/**
+ * Caché de lectura (read-through) del catálogo delante de ProductoRepository.
+ * Los controladores de producto leen desde aquí y la caché se invalida con cada
+ * {@link ProductoChangedEvent} publicado tras una escritura. Un contador de generación
+ * evita que una lectura que empezó antes de una escritura vuelva a dejar en caché
+ * datos ya invalidados.
+ */
+@Service
+public class ProductoCatalogCache {
+
+    private static final String ALL_KEY = "all";
+
+    private final ProductoRepository productoRepository;
+    private final BoundedTtlCache<Long, Producto> byId;
+    private final BoundedTtlCache<String, List<Producto>> pages;
+    private long generation;
+
+    public ProductoCatalogCache(ProductoRepository productoRepository,
+                                @Value("${catalog.cache.max-entries:1000}") int maxEntries,
+                                @Value("${catalog.cache.max-pages:200}") int maxPages,
+                                @Value("${catalog.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.productoRepository = productoRepository;
+        this.byId = new BoundedTtlCache<>(maxEntries, Duration.ofSeconds(ttlSeconds));
+        this.pages = new BoundedTtlCache<>(maxPages, Duration.ofSeconds(ttlSeconds));
+    }
+
+    public Optional<Producto> findById(Long id) {
+        Producto cached = byId.get(id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long gen = currentGeneration();
+        Optional<Producto> loaded = productoRepository.findById(id);
+        loaded.ifPresent(p -> putIfCurrent(gen, () -> byId.put(id, p)));
+        return loaded;
+    }
+
+    // Página por cursor; limit ya incluye la fila extra de CursorPagination.probe
+    public List<Producto> findPage(long after, Limit limit) {
+        String key = after + ":" + limit.max();
+        List<Producto> cached = pages.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long gen = currentGeneration();
+        List<Producto> loaded = List.copyOf(productoRepository.findByIdGreaterThanOrderByIdAsc(after, limit));
+        putIfCurrent(gen, () -> pages.put(key, loaded));
+        return loaded;
+    }
+
+    public List<Producto> findAll() {
+        List<Producto> cached = pages.get(ALL_KEY);
+        if (cached != null) {
+            return cached;
+        }
+        long gen = currentGeneration();
+        List<Producto> loaded = List.copyOf(productoRepository.findAll());
+        putIfCurrent(gen, () -> pages.put(ALL_KEY, loaded));
+        return loaded;
+    }
+
+    @EventListener
+    public void onProductoChanged(ProductoChangedEvent event) {
+        invalidate(event.getProductoId());
+    }
+
+    // Las páginas pueden contener el producto modificado, por eso se descartan todas
+    public synchronized void invalidate(Long id) {
+        generation++;
+        if (id != null) byId.invalidate(id);
+        pages.invalidateAll();
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        byId.invalidateAll();
+        pages.invalidateAll();
+    }
+
+    public Map<String, CacheStats> stats() {
+        return Map.of("productos", byId.stats(), "paginas", pages.stats());
+    }
+
+    private synchronized long currentGeneration() {
+        return generation;
+    }
+
+    private synchronized void putIfCurrent(long gen, Runnable put) {
+        if (gen == generation) {
+            put.run();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.miapp.service;
+
+import com.example.miapp.model.Producto;
+
+/**
+ * Evento publicado por los controladores de producto después de guardar o eliminar
+ * un producto. Lo escuchan los componentes que mantienen copias en memoria del
+ * catálogo (caché, índice de búsqueda) para actualizarse de forma incremental.
+ */
+public class ProductoChangedEvent {
+
+    private final Long productoId;
+    private final Producto producto; // null cuando el producto fue eliminado
+
+    private ProductoChangedEvent(Long productoId, Producto producto) {
+        this.productoId = productoId;
+        this.producto = producto;
+    }
+
+    public static ProductoChangedEvent saved(Producto producto) {
+        return new ProductoChangedEvent(producto.getId(), producto);
+    }
+
+    public static ProductoChangedEvent deleted(Long productoId) {
+        return new ProductoChangedEvent(productoId, null);
+    }
+
+    public Long getProductoId() { return productoId; }
+    public Producto getProducto() { return producto; }
+    public boolean isDeleted() { return producto == null; }
+}
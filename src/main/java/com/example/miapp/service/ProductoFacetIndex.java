@@ -0,0 +1,301 @@
+package com.example.miapp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.ProductoRepository;
+
+/**
+ * Motor de facetas del catálogo. Cada producto ocupa una posición (slot) fija y cada
+ * valor de faceta (categoría, oferta, rango de precio, disponibilidad) guarda un
+ * BitSet con los slots que lo cumplen. Filtrar es intersectar BitSets y los conteos
+ * por valor salen de la misma intersección, sin consultas COUNT a la base de datos.
+ * Se mantiene al día con {@link ProductoChangedEvent}.
+ */
+@Service
+public class ProductoFacetIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductoFacetIndex.class);
+
+    public static final String FACET_CATEGORIA = "categoria";
+    public static final String FACET_OFERTA = "oferta";
+    public static final String FACET_PRECIO = "rango_precio";
+    public static final String FACET_DISPONIBLE = "disponible";
+
+    private final ProductoRepository productoRepository;
+    private final double[] priceBounds;
+    private final String[] rangoLabels;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Los slots no se reutilizan: así el cursor (id) de una página sigue siendo válido tras un borrado
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private final List<Producto> slots = new ArrayList<>();
+    private final BitSet live = new BitSet();
+
+    private final Map<String, BitSet> categorias = new HashMap<>();
+    private final Map<String, String> categoriaLabels = new HashMap<>();
+    private final BitSet enOferta = new BitSet();
+    private final BitSet disponibles = new BitSet();
+    private final BitSet[] rangos;
+
+    public ProductoFacetIndex(ProductoRepository productoRepository,
+                              @Value("${catalog.facets.price-bounds:5000,10000,20000,50000}") double[] priceBounds) {
+        this.productoRepository = productoRepository;
+        this.priceBounds = priceBounds.clone();
+        Arrays.sort(this.priceBounds);
+        this.rangoLabels = new String[this.priceBounds.length + 1];
+        this.rangos = new BitSet[this.priceBounds.length + 1];
+        double lower = 0;
+        for (int i = 0; i < rangos.length; i++) {
+            rangos[i] = new BitSet();
+            rangoLabels[i] = (i < this.priceBounds.length)
+                    ? format(lower) + "-" + format(this.priceBounds[i])
+                    : format(lower) + "+";
+            if (i < this.priceBounds.length) lower = this.priceBounds[i];
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            slotById.clear();
+            slots.clear();
+            live.clear();
+            categorias.clear();
+            categoriaLabels.clear();
+            enOferta.clear();
+            disponibles.clear();
+            for (BitSet r : rangos) r.clear();
+            productoRepository.findAll().stream()
+                    .sorted((a, b) -> Long.compare(a.getId(), b.getId()))
+                    .forEach(this::upsert);
+            log.info("Índice de facetas de productos construido: {} productos", live.cardinality());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @EventListener
+    public void onProductoChanged(ProductoChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (event.isDeleted()) {
+                Integer slot = slotById.get(event.getProductoId());
+                if (slot != null) clearSlot(slot);
+            } else {
+                upsert(event.getProducto());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aplica el filtro y devuelve una página (en orden de slot, que coincide con el orden
+     * de id) junto con los conteos por faceta. Los conteos de cada faceta se calculan con
+     * los filtros de las demás facetas, para que el cliente vea cuántos resultados
+     * obtendría al cambiar la selección de esa faceta.
+     */
+    public Result filter(Filter f, long after, int limit) {
+        lock.readLock().lock();
+        try {
+            BitSet catBits = categoriaBits(f.getCategorias());
+            BitSet ofertaBits = booleanBits(f.getOferta(), enOferta);
+            BitSet precioBits = rangoBits(f.getRangosPrecio());
+            BitSet dispBits = booleanBits(f.getDisponible(), disponibles);
+
+            BitSet match = and(live, catBits, ofertaBits, precioBits, dispBits);
+
+            Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+            BitSet base = and(live, ofertaBits, precioBits, dispBits);
+            Map<String, Integer> catCounts = new LinkedHashMap<>();
+            categorias.forEach((key, bits) -> putCount(catCounts, categoriaLabels.get(key), bits, base));
+            facets.put(FACET_CATEGORIA, catCounts);
+
+            facets.put(FACET_OFERTA, booleanCounts(enOferta, and(live, catBits, precioBits, dispBits)));
+
+            BitSet basePrecio = and(live, catBits, ofertaBits, dispBits);
+            Map<String, Integer> precioCounts = new LinkedHashMap<>();
+            for (int i = 0; i < rangos.length; i++) putCount(precioCounts, rangoLabels[i], rangos[i], basePrecio);
+            facets.put(FACET_PRECIO, precioCounts);
+
+            facets.put(FACET_DISPONIBLE, booleanCounts(disponibles, and(live, catBits, ofertaBits, precioBits)));
+
+            List<Producto> items = new ArrayList<>(limit);
+            boolean hasMore = false;
+            for (int slot = match.nextSetBit(startSlot(after)); slot >= 0; slot = match.nextSetBit(slot + 1)) {
+                if (items.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                items.add(slots.get(slot));
+            }
+            return new Result(items, hasMore, match.cardinality(), facets);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Helpers (se llaman con el lock tomado) ---
+
+    private void upsert(Producto p) {
+        if (p == null || p.getId() == null) return;
+        Integer slot = slotById.get(p.getId());
+        if (slot == null) {
+            slot = slots.size();
+            slots.add(p);
+            slotById.put(p.getId(), slot);
+        } else {
+            clearSlot(slot);
+            slots.set(slot, p);
+        }
+        live.set(slot);
+        if (p.getCategoria() != null && !p.getCategoria().isBlank()) {
+            String key = TextNormalizer.normalizePhrase(p.getCategoria());
+            categorias.computeIfAbsent(key, k -> new BitSet()).set(slot);
+            categoriaLabels.putIfAbsent(key, p.getCategoria().trim());
+        }
+        if (p.isOferta()) enOferta.set(slot);
+        if (p.getStock() != null && p.getStock() > 0) disponibles.set(slot);
+        if (p.getPrecio() != null) rangos[rangoIndex(p.getPrecio())].set(slot);
+    }
+
+    private void clearSlot(int slot) {
+        live.clear(slot);
+        categorias.values().removeIf(bits -> {
+            bits.clear(slot);
+            return bits.isEmpty();
+        });
+        categoriaLabels.keySet().retainAll(categorias.keySet());
+        enOferta.clear(slot);
+        disponibles.clear(slot);
+        for (BitSet r : rangos) r.clear(slot);
+    }
+
+    private int rangoIndex(double precio) {
+        int i = 0;
+        while (i < priceBounds.length && precio >= priceBounds[i]) i++;
+        return i;
+    }
+
+    private int startSlot(long after) {
+        if (after <= 0) return 0;
+        Integer slot = slotById.get(after);
+        if (slot != null) return slot + 1;
+        // Cursor de un id que nunca estuvo en el índice: primer slot con id mayor
+        for (int i = 0; i < slots.size(); i++) {
+            if (slots.get(i).getId() > after) return i;
+        }
+        return slots.size();
+    }
+
+    private BitSet categoriaBits(Set<String> values) {
+        if (values == null || values.isEmpty()) return null;
+        BitSet bits = new BitSet();
+        for (String v : values) {
+            BitSet b = categorias.get(TextNormalizer.normalizePhrase(v));
+            if (b != null) bits.or(b);
+        }
+        return bits;
+    }
+
+    private BitSet rangoBits(Set<String> labels) {
+        if (labels == null || labels.isEmpty()) return null;
+        BitSet bits = new BitSet();
+        for (int i = 0; i < rangos.length; i++) {
+            if (labels.contains(rangoLabels[i])) bits.or(rangos[i]);
+        }
+        return bits;
+    }
+
+    private BitSet booleanBits(Boolean wanted, BitSet trueBits) {
+        if (wanted == null) return null;
+        if (wanted) return trueBits;
+        BitSet bits = (BitSet) live.clone();
+        bits.andNot(trueBits);
+        return bits;
+    }
+
+    private static Map<String, Integer> booleanCounts(BitSet trueBits, BitSet base) {
+        BitSet t = (BitSet) base.clone();
+        t.and(trueBits);
+        int trueCount = t.cardinality();
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("true", trueCount);
+        counts.put("false", base.cardinality() - trueCount);
+        return counts;
+    }
+
+    private static void putCount(Map<String, Integer> counts, String label, BitSet bits, BitSet base) {
+        BitSet b = (BitSet) bits.clone();
+        b.and(base);
+        counts.put(label, b.cardinality());
+    }
+
+    private static BitSet and(BitSet first, BitSet... others) {
+        BitSet result = (BitSet) first.clone();
+        for (BitSet o : others) {
+            if (o != null) result.and(o);
+        }
+        return result;
+    }
+
+    private static String format(double v) {
+        return (v == Math.rint(v)) ? String.valueOf((long) v) : String.valueOf(v);
+    }
+
+    // Filtro solicitado; null o vacío significa "sin filtrar por esa faceta"
+    public static class Filter {
+        private final Set<String> categorias;
+        private final Boolean oferta;
+        private final Set<String> rangosPrecio;
+        private final Boolean disponible;
+
+        public Filter(Set<String> categorias, Boolean oferta, Set<String> rangosPrecio, Boolean disponible) {
+            this.categorias = categorias;
+            this.oferta = oferta;
+            this.rangosPrecio = rangosPrecio;
+            this.disponible = disponible;
+        }
+
+        public Set<String> getCategorias() { return categorias; }
+        public Boolean getOferta() { return oferta; }
+        public Set<String> getRangosPrecio() { return rangosPrecio; }
+        public Boolean getDisponible() { return disponible; }
+    }
+
+    public static class Result {
+        private final List<Producto> items;
+        private final boolean hasMore;
+        private final int total;
+        private final Map<String, Map<String, Integer>> facets;
+
+        public Result(List<Producto> items, boolean hasMore, int total, Map<String, Map<String, Integer>> facets) {
+            this.items = items;
+            this.hasMore = hasMore;
+            this.total = total;
+            this.facets = facets;
+        }
+
+        public List<Producto> getItems() { return items; }
+        public boolean isHasMore() { return hasMore; }
+        public int getTotal() { return total; }
+        public Map<String, Map<String, Integer>> getFacets() { return facets; }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.miapp.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.ProductoRepository;
+
+/**
+ * Índice invertido en memoria sobre nombre, categoría y descripción de los productos.
+ * Se construye completo al arrancar y luego se mantiene de forma incremental con
+ * {@link ProductoChangedEvent}. Los términos se guardan ordenados, de modo que la
+ * búsqueda por prefijo (type-ahead) es un rango sobre el diccionario.
+ */
+@Service
+public class ProductoSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductoSearchIndex.class);
+
+    private static final int PESO_NOMBRE = 3;
+    private static final int PESO_CATEGORIA = 2;
+    private static final int PESO_DESCRIPCION = 1;
+    // Un término que solo coincide por prefijo pesa menos que la palabra completa
+    private static final double FACTOR_PREFIJO = 0.6;
+
+    private final ProductoRepository productoRepository;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // término -> (id producto -> peso del término en ese producto)
+    private final TreeMap<String, Map<Long, Integer>> postings = new TreeMap<>();
+    private final Map<Long, Producto> docs = new HashMap<>();
+    private final Map<Long, Set<String>> docTerms = new HashMap<>();
+
+    public ProductoSearchIndex(ProductoRepository productoRepository) {
+        this.productoRepository = productoRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docs.clear();
+            docTerms.clear();
+            for (Producto p : productoRepository.findAll()) {
+                add(p);
+            }
+            log.info("Índice de búsqueda de productos construido: {} productos, {} términos", docs.size(), postings.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @EventListener
+    public void onProductoChanged(ProductoChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            remove(event.getProductoId());
+            if (!event.isDeleted()) {
+                add(event.getProducto());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve los productos que contienen todos los términos de la consulta (cada
+     * término puede coincidir por prefijo), ordenados por relevancia. Si el último término
+     * es una palabra vacía (prefijo en escritura, p. ej. "la" de "lampara") y no coincide con
+     * ninguno de los productos ya encontrados, se ignora: era la palabra vacía y no un prefijo.
+     */
+    public List<Producto> search(String query, int limit) {
+        List<String> terms = TextNormalizer.tokenizeQuery(query);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            Map<Long, Double> scores = null;
+            for (int i = 0; i < terms.size(); i++) {
+                String term = terms.get(i);
+                Map<Long, Double> termScores = scoreTerm(term);
+                if (scores == null) {
+                    scores = termScores;
+                } else if (i == terms.size() - 1 && TextNormalizer.isStopword(term)
+                        && scores.keySet().stream().noneMatch(termScores::containsKey)) {
+                    break;
+                } else {
+                    scores.keySet().retainAll(termScores.keySet());
+                    scores.replaceAll((id, s) -> s + termScores.get(id));
+                }
+                if (scores.isEmpty()) {
+                    return List.of();
+                }
+            }
+            List<Map.Entry<Long, Double>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort(Map.Entry.<Long, Double>comparingByValue(Comparator.reverseOrder())
+                    .thenComparing(Map.Entry.comparingByKey()));
+            List<Producto> result = new ArrayList<>(Math.min(limit, ranked.size()));
+            for (int i = 0; i < ranked.size() && i < limit; i++) {
+                result.add(docs.get(ranked.get(i).getKey()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Helpers (se llaman con el lock tomado) ---
+
+    private Map<Long, Double> scoreTerm(String term) {
+        Map<Long, Double> termScores = new HashMap<>();
+        int totalDocs = docs.size();
+        for (Map.Entry<String, Map<Long, Integer>> e
+                : postings.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+            Map<Long, Integer> postingList = e.getValue();
+            double idf = Math.log(1.0 + (double) totalDocs / postingList.size());
+            double factor = e.getKey().equals(term) ? 1.0 : FACTOR_PREFIJO;
+            for (Map.Entry<Long, Integer> p : postingList.entrySet()) {
+                termScores.merge(p.getKey(), p.getValue() * idf * factor, Math::max);
+            }
+        }
+        return termScores;
+    }
+
+    private void add(Producto p) {
+        if (p == null || p.getId() == null) return;
+        Map<String, Integer> weights = new HashMap<>();
+        addField(weights, p.getNombre(), PESO_NOMBRE);
+        addField(weights, p.getCategoria(), PESO_CATEGORIA);
+        addField(weights, p.getDescripcion(), PESO_DESCRIPCION);
+        for (Map.Entry<String, Integer> w : weights.entrySet()) {
+            postings.computeIfAbsent(w.getKey(), k -> new HashMap<>()).put(p.getId(), w.getValue());
+        }
+        docs.put(p.getId(), p);
+        docTerms.put(p.getId(), weights.keySet());
+    }
+
+    private void remove(Long id) {
+        Set<String> terms = docTerms.remove(id);
+        docs.remove(id);
+        if (terms == null) return;
+        for (String term : terms) {
+            Map<Long, Integer> postingList = postings.get(term);
+            if (postingList == null) continue;
+            postingList.remove(id);
+            if (postingList.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    private static void addField(Map<String, Integer> weights, String text, int weight) {
+        for (String token : TextNormalizer.tokenize(text)) {
+            weights.merge(token, weight, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.miapp.service;
+
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.miapp.model.Orden;
+import com.example.miapp.model.Producto;
+import com.example.miapp.model.Usuario;
+import com.example.miapp.repository.OrdenRepository;
+import com.example.miapp.repository.ProductoRepository;
+import com.example.miapp.repository.UsuarioRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Resuelve claves foráneas (producto, usuario, orden) sin un SELECT por referencia: la
+ * existencia se consulta en un conjunto en memoria de ids vivos y la entidad se entrega como
+ * referencia perezosa (getReferenceById). Los ids son IDENTITY, densos, así que cada conjunto
+ * es un BitSet (un bit por id). Se cargan al arrancar y se mantienen con los eventos de
+ * Hibernate: un insert entra al conjunto después del commit y un delete sale de inmediato.
+ * Un id que no está en el conjunto se verifica en la base (creado por otra instancia, o
+ * un insert que aún no confirma) y solo si no existe se rechaza con 400.
+ *
+ * Los conjuntos son best-effort: no ven los deletes de otras instancias, ni los DELETE
+ * masivos por JPQL ni el SQL directo, así que un id presente puede ya no existir. La FK de
+ * la base es la que decide; las escrituras que usan estas referencias pasan por
+ * {@link #escribir} para que esa violación llegue como 400 y no como 500.
+ */
+@Service
+public class ReferenceResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceResolver.class);
+
+    // SQLState de FK violada: 23503 en PostgreSQL; H2 usa 23506 para un padre que no existe
+    private static final List<String> SQLSTATE_FK = List.of("23503", "23506");
+
+    private final ProductoRepository productoRepository;
+    private final UsuarioRepository usuarioRepository;
+    private final OrdenRepository ordenRepository;
+
+    private final IdSet productos = new IdSet();
+    private final IdSet usuarios = new IdSet();
+    private final IdSet ordenes = new IdSet();
+
+    public ReferenceResolver(ProductoRepository productoRepository,
+                             UsuarioRepository usuarioRepository,
+                             OrdenRepository ordenRepository,
+                             EntityManagerFactory entityManagerFactory) {
+        this.productoRepository = productoRepository;
+        this.usuarioRepository = usuarioRepository;
+        this.ordenRepository = ordenRepository;
+
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, new Altas());
+        registry.appendListeners(EventType.POST_DELETE, new Bajas());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        cargar(productos, productoRepository.findAllIds());
+        cargar(usuarios, usuarioRepository.findAllIds());
+        cargar(ordenes, ordenRepository.findAllIds());
+        log.info("Ids de referencia cargados: {} productos, {} usuarios, {} órdenes",
+                productos.size(), usuarios.size(), ordenes.size());
+    }
+
+    public Producto producto(Long id) {
+        exigir(productos, id, productoRepository::existsById, "Producto no existe");
+        return productoRepository.getReferenceById(id);
+    }
+
+    public Usuario usuario(Long id) {
+        exigir(usuarios, id, usuarioRepository::existsById, "Usuario no existe");
+        return usuarioRepository.getReferenceById(id);
+    }
+
+    public Orden orden(Long id) {
+        exigir(ordenes, id, ordenRepository::existsById, "Orden no existe");
+        return ordenRepository.getReferenceById(id);
+    }
+
+    public boolean existeUsuario(Long id) {
+        return existe(usuarios, id, usuarioRepository::existsById);
+    }
+
+    /**
+     * Ejecuta una escritura (con su transacción completa, el commit incluido) que guarda
+     * referencias resueltas aquí. Si el id venía de un conjunto desactualizado la base
+     * rechaza la FK: se responde 400 como si la referencia no existiera. Las demás violaciones
+     * (únicos, NOT NULL) se propagan tal cual.
+     */
+    public <T> T escribir(Supplier<T> escritura) {
+        try {
+            return escritura.get();
+        } catch (DataIntegrityViolationException e) {
+            if (!esViolacionDeFk(e)) throw e;
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Referencia inválida o inexistente", e);
+        }
+    }
+
+    private static boolean esViolacionDeFk(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof SQLException sql && SQLSTATE_FK.contains(sql.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void exigir(IdSet ids, Long id, Predicate<Long> enBase, String mensaje) {
+        if (!existe(ids, id, enBase)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, mensaje);
+        }
+    }
+
+    private boolean existe(IdSet ids, Long id, Predicate<Long> enBase) {
+        if (id == null) return false;
+        if (ids.contains(id)) return true;
+        if (enBase.test(id)) {
+            ids.add(id);
+            return true;
+        }
+        return false;
+    }
+
+    private static void cargar(IdSet ids, List<Long> lista) {
+        lista.forEach(ids::add);
+    }
+
+    private IdSet conjunto(Object entidad) {
+        if (entidad instanceof Producto) return productos;
+        if (entidad instanceof Usuario) return usuarios;
+        if (entidad instanceof Orden) return ordenes;
+        return null;
+    }
+
+    private final class Altas implements PostCommitInsertEventListener {
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            IdSet ids = conjunto(event.getEntity());
+            if (ids != null && event.getId() instanceof Long id) ids.add(id);
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+            // Nunca entró al conjunto
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return true;
+        }
+    }
+
+    private final class Bajas implements PostDeleteEventListener {
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            // Se quita antes del commit: si hay rollback el id vuelve al conjunto en la próxima consulta a la base
+            IdSet ids = conjunto(event.getEntity());
+            if (ids != null && event.getId() instanceof Long id) ids.remove(id);
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return false;
+        }
+    }
+
+    // Ids fuera del rango de un BitSet no se guardan: siempre se consultan en la base
+    private static final class IdSet {
+        private final BitSet bits = new BitSet();
+
+        synchronized boolean contains(long id) {
+            return id >= 0 && id <= Integer.MAX_VALUE && bits.get((int) id);
+        }
+
+        synchronized void add(long id) {
+            if (id >= 0 && id <= Integer.MAX_VALUE) bits.set((int) id);
+        }
+
+        synchronized void remove(long id) {
+            if (id >= 0 && id <= Integer.MAX_VALUE) bits.clear((int) id);
+        }
+
+        synchronized int size() {
+            return bits.cardinality();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.miapp.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Normalización de texto en español: minúsculas, sin tildes ni diéresis
+ * ("Maipú" -> "maipu", "Ñuñoa" -> "nunoa") y tokenización para búsqueda.
+ */
+public final class TextNormalizer {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "al", "con", "de", "del", "el", "en", "la", "las", "lo", "los",
+            "o", "para", "por", "sin", "su", "sus", "un", "una", "unos", "unas", "y");
+
+    private TextNormalizer() { }
+
+    public static String fold(String text) {
+        if (text == null) return "";
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    // Forma canónica de una frase corta (comuna, dirección): sin tildes y con espacios colapsados
+    public static String normalizePhrase(String text) {
+        return SPACES.matcher(fold(text).trim()).replaceAll(" ");
+    }
+
+    /**
+     * Divide el texto en términos normalizados, descarta palabras vacías y reduce
+     * el plural simple ("tomates" -> "tomate") para que singular y plural coincidan.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String raw : SEPARATORS.split(fold(text))) {
+            if (raw.isEmpty() || STOPWORDS.contains(raw)) continue;
+            tokens.add(stem(raw));
+        }
+        return tokens;
+    }
+
+    /**
+     * Términos de una consulta de búsqueda: como {@link #tokenize}, pero la última palabra se
+     * conserva aunque sea vacía si el texto no termina en separador. Es el prefijo que el
+     * usuario está escribiendo ("la" de "lampara", "con" de "consola").
+     */
+    public static List<String> tokenizeQuery(String text) {
+        List<String> tokens = tokenize(text);
+        String folded = fold(text);
+        if (folded.isEmpty() || SEPARATORS.matcher(folded.substring(folded.length() - 1)).matches()) {
+            return tokens;
+        }
+        String[] raws = SEPARATORS.split(folded);
+        String prefijo = raws[raws.length - 1];
+        if (STOPWORDS.contains(prefijo)) {
+            tokens.add(stem(prefijo));
+        }
+        return tokens;
+    }
+
+    public static boolean isStopword(String token) {
+        return STOPWORDS.contains(token);
+    }
+
+    private static String stem(String token) {
+        if (token.length() > 3 && token.endsWith("s")) {
+            return token.substring(0, token.length() - 1);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.miapp.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limitador de tasa (token bucket) para llamadas salientes. Los que esperan turno se
+ * atienden en orden de llegada (lock justo), así nadie queda postergado indefinidamente
+ * bajo carga. Lleva métricas de cola y de tiempo de espera.
+ */
+public class TokenBucket {
+
+    private final double capacidad;
+    private final double intervaloNanos;
+    // Justo: el orden de adquisición es el orden de llegada
+    private final ReentrantLock turno = new ReentrantLock(true);
+    private double tokens;
+    private long ultimaRecarga;
+
+    private final AtomicInteger enEspera = new AtomicInteger();
+    private final LongAdder otorgados = new LongAdder();
+    private final LongAdder agotados = new LongAdder();
+    private final LongAdder devueltos = new LongAdder();
+    private final LongAdder esperaTotalNanos = new LongAdder();
+    private volatile long esperaMaxNanos;
+
+    public TokenBucket(double porSegundo, int rafaga) {
+        if (porSegundo <= 0) {
+            throw new IllegalArgumentException("porSegundo debe ser mayor a 0");
+        }
+        this.capacidad = Math.max(1, rafaga);
+        this.intervaloNanos = TimeUnit.SECONDS.toNanos(1) / porSegundo;
+        this.tokens = capacidad;
+        this.ultimaRecarga = System.nanoTime();
+    }
+
+    /**
+     * Espera un token como máximo maxEspera; false si no lo obtuvo a tiempo.
+     * Interrumpible: un llamador cancelado sale de la cola sin consumir token.
+     */
+    public boolean adquirir(long maxEspera, TimeUnit unidad) throws InterruptedException {
+        long inicio = System.nanoTime();
+        long limite = inicio + unidad.toNanos(maxEspera);
+        enEspera.incrementAndGet();
+        try {
+            if (!turno.tryLock(limite - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                agotados.increment();
+                return false;
+            }
+            try {
+                recargar();
+                while (tokens < 1) {
+                    long falta = (long) Math.ceil((1 - tokens) * intervaloNanos);
+                    if (System.nanoTime() + falta - limite > 0) {
+                        agotados.increment();
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.sleep(falta);
+                    recargar();
+                }
+                tokens -= 1;
+            } finally {
+                turno.unlock();
+            }
+            otorgados.increment();
+            registrarEspera(System.nanoTime() - inicio);
+            return true;
+        } finally {
+            enEspera.decrementAndGet();
+        }
+    }
+
+    /** Devuelve un token obtenido con adquirir que al final no se usó. */
+    public void devolver() {
+        turno.lock();
+        try {
+            recargar();
+            tokens = Math.min(capacidad, tokens + 1);
+        } finally {
+            turno.unlock();
+        }
+        devueltos.increment();
+    }
+
+    public Map<String, Object> stats() {
+        long n = otorgados.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("en_espera", enEspera.get());
+        stats.put("otorgados", n);
+        stats.put("agotados", agotados.sum());
+        stats.put("devueltos", devueltos.sum());
+        stats.put("espera_promedio_ms", n == 0 ? 0.0 : esperaTotalNanos.sum() / 1e6 / n);
+        stats.put("espera_max_ms", esperaMaxNanos / 1e6);
+        return stats;
+    }
+
+    // Solo con el lock tomado
+    private void recargar() {
+        long ahora = System.nanoTime();
+        tokens = Math.min(capacidad, tokens + (ahora - ultimaRecarga) / intervaloNanos);
+        ultimaRecarga = ahora;
+    }
+
+    private void registrarEspera(long nanos) {
+        esperaTotalNanos.add(nanos);
+        if (nanos > esperaMaxNanos) {
+            synchronized (this) {
+                if (nanos > esperaMaxNanos) esperaMaxNanos = nanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.miapp.service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.miapp.dto.VentasReporteResponse;
+import com.example.miapp.model.EstadoOrden;
+import com.example.miapp.model.VentaDiaria;
+import com.example.miapp.repository.OrdenItemRepository;
+import com.example.miapp.repository.OrdenRepository;
+import com.example.miapp.repository.VentaDiariaRepository;
+
+import jakarta.persistence.criteria.Predicate;
+
+/**
+ * Mantiene el rollup venta_diaria (día x región x comuna x categoría) de forma incremental.
+ * Toda escritura de órdenes o items pasa por {@link #conAjuste}: se calcula el aporte de las
+ * órdenes afectadas antes y después de escribir, y solo la diferencia se suma al rollup,
+ * en la misma transacción. Las órdenes CANCELADA no aportan. El costo de cada ajuste depende
+ * de los items de esas órdenes, no del tamaño de la tabla.
+ */
+@Service
+public class VentasRollupService {
+
+    public static final List<String> DIMENSIONES = List.of("dia", "region", "comuna", "categoria");
+
+    private static final String SIN_DATO = "";
+    private static final int BLOQUE_RECONSTRUCCION = 500;
+    // Asegura la fila y luego la incrementa: ambas sentencias son atómicas frente a otros checkouts
+    private static final String INSERT_SQL =
+            "insert into venta_diaria (dia, region, comuna, categoria, total, unidades) values (?, ?, ?, ?, 0, 0) on conflict do nothing";
+    // Equivalente para H2, que fuera del modo PostgreSQL no soporta on conflict
+    private static final String MERGE_SQL = "merge into venta_diaria t using (values (cast(? as date), cast(? as varchar), "
+            + "cast(? as varchar), cast(? as varchar))) s (dia, region, comuna, categoria) "
+            + "on t.dia = s.dia and t.region = s.region and t.comuna = s.comuna and t.categoria = s.categoria "
+            + "when not matched then insert (dia, region, comuna, categoria, total, unidades) values (s.dia, s.region, s.comuna, s.categoria, 0, 0)";
+    private static final String UPDATE_SQL =
+            "update venta_diaria set total = total + ?, unidades = unidades + ? where dia = ? and region = ? and comuna = ? and categoria = ?";
+    // Toda escritura de órdenes termina escribiendo en venta_diaria (aplicar), así que este lock la detiene
+    // hasta el commit de la reconstrucción; y la reconstrucción espera a las que ya escribieron
+    private static final String LOCK_SQL = "lock table venta_diaria in exclusive mode";
+    // Items sin categoría (nuevos, que cambiaron de producto, o anteriores a la columna): se copia la actual del producto
+    private static final String COMPLETAR_CATEGORIAS_SQL = "update orden_items set categoria = "
+            + "(select p.categoria from productos p where p.id = orden_items.producto_id) where categoria is null";
+
+    // Admite dimensiones en null (las no agrupadas en el reporte)
+    private static final Comparator<Clave> ORDEN_CLAVES = Comparator
+            .comparing(Clave::dia, Comparator.nullsFirst(Comparator.<LocalDate>naturalOrder()))
+            .thenComparing(Clave::region, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(Clave::comuna, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(Clave::categoria, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+    private final OrdenItemRepository ordenItemRepository;
+    private final OrdenRepository ordenRepository;
+    private final VentaDiariaRepository ventaDiariaRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ZoneId zona;
+    private final boolean h2;
+    private final String insertSql;
+
+    public VentasRollupService(OrdenItemRepository ordenItemRepository,
+                               OrdenRepository ordenRepository,
+                               VentaDiariaRepository ventaDiariaRepository,
+                               JdbcTemplate jdbcTemplate,
+                               @Value("${ventas.rollup.zona:America/Santiago}") ZoneId zona) {
+        this.ordenItemRepository = ordenItemRepository;
+        this.ordenRepository = ordenRepository;
+        this.ventaDiariaRepository = ventaDiariaRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.zona = zona;
+        String base = jdbcTemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+        this.h2 = "H2".equalsIgnoreCase(base);
+        this.insertSql = insertSql(base);
+    }
+
+    // Visible para probar ambas variantes contra H2
+    static String insertSql(String baseDeDatos) {
+        return "H2".equalsIgnoreCase(baseDeDatos) ? MERGE_SQL : INSERT_SQL;
+    }
+
+    // Una vez al arrancar, para los items escritos antes de que orden_items guardara la categoría
+    @EventListener(ApplicationReadyEvent.class)
+    public void completarCategorias() {
+        jdbcTemplate.update(COMPLETAR_CATEGORIAS_SQL);
+    }
+
+    /**
+     * Ejecuta una escritura sobre órdenes existentes (o sus items) y ajusta el rollup.
+     * La escritura debe incluir la lectura de las entidades que modifica, para que el
+     * aporte "antes" se calcule sobre el estado aún no modificado. Las órdenes afectadas se
+     * bloquean (select for update) antes de esa lectura: dos escrituras concurrentes sobre la
+     * misma orden se serializan y la segunda ve como "antes" lo que dejó la primera.
+     */
+    @Transactional
+    public <T> T conAjuste(Collection<Long> ordenIds, Supplier<T> escritura) {
+        List<Long> ids = ordenIds.stream().filter(Objects::nonNull).distinct().sorted().toList();
+        if (!ids.isEmpty()) bloquear(ids);
+        Map<Clave, Acumulado> antes = ids.isEmpty() ? Map.of() : aporte(ids);
+        T result = escritura.get();
+        if (!ids.isEmpty()) {
+            ordenItemRepository.flush();
+            completarCategorias(ids);
+            Map<Clave, Acumulado> delta = new HashMap<>(aporte(ids));
+            antes.forEach((clave, valor) -> delta.merge(clave, valor.negado(), Acumulado::mas));
+            aplicar(delta);
+        }
+        return result;
+    }
+
+    // Para escrituras que crean la orden: el aporte "antes" es cero
+    @Transactional
+    public <T> T registrarNueva(Supplier<T> escritura, Function<T, Long> ordenIdOf) {
+        T result = escritura.get();
+        sumarOrden(ordenIdOf.apply(result));
+        return result;
+    }
+
+    @Transactional
+    public void sumarOrden(Long ordenId) {
+        if (ordenId == null) return;
+        ordenItemRepository.flush();
+        completarCategorias(List.of(ordenId));
+        aplicar(aporte(List.of(ordenId)));
+    }
+
+    /**
+     * Recalcula el rollup completo recorriendo las órdenes por bloques de ids.
+     * Pensado para la carga inicial o para reparar. Bloquea venta_diaria en modo exclusivo: las escrituras
+     * de órdenes que llegan durante la reconstrucción esperan su commit y luego suman su diferencia sobre
+     * el rollup reconstruido. H2 no tiene lock table; ahí (desarrollo y pruebas) no hay bloqueo.
+     */
+    @Transactional
+    public int reconstruir() {
+        if (!h2) jdbcTemplate.execute(LOCK_SQL);
+        completarCategorias();
+        ventaDiariaRepository.deleteAllInBatch();
+        Map<Clave, Acumulado> total = new HashMap<>();
+        long after = 0L;
+        List<Long> ids;
+        do {
+            ids = ordenRepository.findIdsAfter(after, Limit.of(BLOQUE_RECONSTRUCCION));
+            if (ids.isEmpty()) break;
+            aporte(ids).forEach((clave, valor) -> total.merge(clave, valor, Acumulado::mas));
+            after = ids.get(ids.size() - 1);
+        } while (ids.size() == BLOQUE_RECONSTRUCCION);
+        aplicar(total);
+        return total.size();
+    }
+
+    /**
+     * Reporte leído solo del rollup: O(días x celdas) sin tocar orden ni orden_items.
+     * Los filtros nulos no se aplican; agrupar es un subconjunto de {@link #DIMENSIONES}.
+     */
+    @Transactional(readOnly = true)
+    public VentasReporteResponse reporte(LocalDate desde, LocalDate hasta, String region, String comuna,
+                                         String categoria, List<String> agrupar) {
+        Specification<VentaDiaria> spec = (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            predicates.add(cb.between(root.get("dia"), desde, hasta));
+            if (region != null) predicates.add(cb.equal(root.get("region"), region));
+            if (comuna != null) predicates.add(cb.equal(root.get("comuna"), comuna));
+            if (categoria != null) predicates.add(cb.equal(root.get("categoria"), categoria));
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+
+        boolean porDia = agrupar.contains("dia");
+        boolean porRegion = agrupar.contains("region");
+        boolean porComuna = agrupar.contains("comuna");
+        boolean porCategoria = agrupar.contains("categoria");
+        Map<Clave, Acumulado> grupos = new TreeMap<>(ORDEN_CLAVES);
+        double total = 0.0;
+        long unidades = 0L;
+        for (VentaDiaria v : ventaDiariaRepository.findAll(spec)) {
+            Clave clave = new Clave(porDia ? v.getDia() : null, porRegion ? v.getRegion() : null,
+                    porComuna ? v.getComuna() : null, porCategoria ? v.getCategoria() : null);
+            grupos.merge(clave, new Acumulado(v.getTotal(), v.getUnidades()), Acumulado::mas);
+            total += v.getTotal();
+            unidades += v.getUnidades();
+        }
+
+        // Celdas que quedaron en cero (p. ej. órdenes movidas o canceladas) no se informan
+        List<VentasReporteResponse.Fila> filas = grupos.entrySet().stream()
+                .filter(e -> !e.getValue().esCero())
+                .map(e -> new VentasReporteResponse.Fila(e.getKey().dia(), e.getKey().region(), e.getKey().comuna(),
+                        e.getKey().categoria(), e.getValue().total(), e.getValue().unidades()))
+                .toList();
+        return new VentasReporteResponse(desde, hasta, agrupar, total, unidades, filas);
+    }
+
+    // En orden de id, para que dos transacciones que bloquean las mismas órdenes no se crucen
+    private void bloquear(List<Long> ordenIds) {
+        String marcas = String.join(", ", Collections.nCopies(ordenIds.size(), "?"));
+        jdbcTemplate.queryForList("select id from orden where id in (" + marcas + ") order by id for update",
+                Long.class, ordenIds.toArray());
+    }
+
+    // Fija la categoría de los items recién escritos de estas órdenes antes de calcular su aporte
+    private void completarCategorias(List<Long> ordenIds) {
+        String marcas = String.join(", ", Collections.nCopies(ordenIds.size(), "?"));
+        jdbcTemplate.update(COMPLETAR_CATEGORIAS_SQL + " and orden_id in (" + marcas + ")", ordenIds.toArray());
+    }
+
+    private Map<Clave, Acumulado> aporte(Collection<Long> ordenIds) {
+        Map<Clave, Acumulado> result = new HashMap<>();
+        for (OrdenItemRepository.VentaOrden row
+                : ordenItemRepository.sumarVentasPorOrden(ordenIds, EstadoOrden.CANCELADA.name())) {
+            Clave clave = new Clave(row.getFechaCreacion().atZone(zona).toLocalDate(),
+                    valor(row.getRegion()), valor(row.getComuna()), valor(row.getCategoria()));
+            result.merge(clave, new Acumulado(row.getTotal(), row.getUnidades()), Acumulado::mas);
+        }
+        return result;
+    }
+
+    // Se aplican en orden de clave: dos transacciones concurrentes bloquean las filas en el mismo orden
+    private void aplicar(Map<Clave, Acumulado> deltas) {
+        List<Map.Entry<Clave, Acumulado>> cambios = deltas.entrySet().stream()
+                .filter(e -> !e.getValue().esCero())
+                .sorted(Map.Entry.comparingByKey(ORDEN_CLAVES))
+                .toList();
+        if (cambios.isEmpty()) return;
+
+        jdbcTemplate.batchUpdate(insertSql, cambios, cambios.size(), (ps, e) -> {
+            ps.setObject(1, e.getKey().dia());
+            ps.setString(2, e.getKey().region());
+            ps.setString(3, e.getKey().comuna());
+            ps.setString(4, e.getKey().categoria());
+        });
+        jdbcTemplate.batchUpdate(UPDATE_SQL, cambios, cambios.size(), (ps, e) -> {
+            ps.setDouble(1, e.getValue().total());
+            ps.setLong(2, e.getValue().unidades());
+            ps.setObject(3, e.getKey().dia());
+            ps.setString(4, e.getKey().region());
+            ps.setString(5, e.getKey().comuna());
+            ps.setString(6, e.getKey().categoria());
+        });
+    }
+
+    private static String valor(String value) {
+        return (value == null) ? SIN_DATO : value.trim();
+    }
+
+    private record Clave(LocalDate dia, String region, String comuna, String categoria) { }
+
+    private record Acumulado(double total, long unidades) {
+        Acumulado(Double total, Long unidades) {
+            this(total != null ? total : 0.0, unidades != null ? unidades : 0L);
+        }
+
+        Acumulado mas(Acumulado otro) {
+            return new Acumulado(total + otro.total, unidades + otro.unidades);
+        }
+
+        Acumulado negado() {
+            return new Acumulado(-total, -unidades);
+        }
+
+        boolean esCero() {
+            return total == 0.0 && unidades == 0L;
+        }
+    }
+}
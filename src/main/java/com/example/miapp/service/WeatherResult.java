@@ -19,4 +19,9 @@ public class WeatherResult {
         return precipitationProbability;
     }
 
+    // true si llegó un pronóstico real; los resultados de error o sin datos no traen probabilidad
+    public boolean isDisponible() {
+        return precipitationProbability != null;
+    }
+
 }
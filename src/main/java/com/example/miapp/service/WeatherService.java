@@ -2,8 +2,17 @@ package com.example.miapp.service;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +24,15 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Clima desde Meteored: ubicación (por coordenadas o texto) a hash, y hash a pronóstico diario.
+ * Los hashes por comuna/región se recuerdan en {@link MeteoredDirectorio}; los de coordenadas,
+ * redondeadas a 2 decimales (~1 km), en una caché en memoria.
+ * Los pronósticos se guardan por hash hasta la próxima actualización de Meteored
+ * (meteored.forecast.cache.intervalo-minutos) y luego se sirven vencidos mientras se refrescan.
+ */
 @Service
 public class WeatherService {
 
@@ -23,13 +41,37 @@ public class WeatherService {
     private final RestTemplate restTemplate;
     private final String meteoredUrl;
     private final String meteoredApiKey;
+    private final MeteoredDirectorio directorio;
+    // Hash por coordenadas redondeadas: evita la búsqueda por coordenadas en cada pronóstico
+    private final BoundedTtlCache<String, String> hashesPorCoordenadas;
+
+    // Pronósticos por hash de ubicación; la vida en la caché incluye la ventana stale
+    private final BoundedTtlCache<String, Pronostico> pronosticos;
+    private final long intervaloMillis;
+    private final Map<String, CompletableFuture<WeatherResult>> enVuelo = new ConcurrentHashMap<>();
+    private final ExecutorService refrescos = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LongAdder frescos = new LongAdder();
+    private final LongAdder vencidos = new LongAdder();
+    private final LongAdder faltantes = new LongAdder();
+    private final LongAdder consultas = new LongAdder();
 
     public WeatherService(RestTemplate restTemplate,
+                          MeteoredDirectorio directorio,
                           @Value("${meteored.api.url:https://api.meteored.com}") String meteoredUrl,
-                          @Value("${meteored.api.key:}") String meteoredApiKey) {
+                          @Value("${meteored.api.key:}") String meteoredApiKey,
+                          @Value("${meteored.forecast.cache.max-entries:2000}") int maxEntries,
+                          @Value("${meteored.forecast.cache.intervalo-minutos:60}") long intervaloMinutos,
+                          @Value("${meteored.forecast.cache.stale-minutos:360}") long staleMinutos,
+                          @Value("${meteored.ubicacion.cache.max-entries:5000}") int maxUbicaciones,
+                          @Value("${meteored.ubicacion.cache.ttl-horas:24}") long ttlUbicacionHoras) {
         this.restTemplate = restTemplate;
         this.meteoredUrl = meteoredUrl;
         this.meteoredApiKey = meteoredApiKey;
+        this.directorio = directorio;
+        this.intervaloMillis = Duration.ofMinutes(Math.max(1, intervaloMinutos)).toMillis();
+        this.pronosticos = new BoundedTtlCache<>(maxEntries, Duration.ofMinutes(intervaloMinutos + staleMinutos));
+        this.hashesPorCoordenadas = new BoundedTtlCache<>(maxUbicaciones, Duration.ofHours(ttlUbicacionHoras));
     }
 
     /**
@@ -50,6 +92,12 @@ public class WeatherService {
                 headers.set("x-api-key", meteoredApiKey);
             }
             HttpEntity<Void> entity = new HttpEntity<>(headers);
+            // Misma clave que usa el pipeline para agrupar órdenes cercanas
+            String coordenadas = String.format(Locale.ROOT, "%.2f,%.2f", lat, lon);
+            String conocido = hashesPorCoordenadas.get(coordenadas);
+            if (conocido != null) {
+                return pronostico(conocido, entity);
+            }
             ResponseEntity<Map> locResp = restTemplate.exchange(locationUrl, HttpMethod.GET, entity, Map.class);
             Object locBody = locResp.getBody();
             String hash = null;
@@ -112,51 +160,8 @@ public class WeatherService {
                 return new WeatherResult("Sin datos de ubicación", null);
             }
 
-            String forecastUrl = String.format("%s/api/forecast/v1/daily/%s", meteoredUrl, hash);
-            if (meteoredApiKey != null && !meteoredApiKey.isBlank()) {
-                forecastUrl = forecastUrl + "?apikey=" + meteoredApiKey;
-            }
-            ResponseEntity<Map> foreResp = restTemplate.exchange(forecastUrl, HttpMethod.GET, entity, Map.class);
-            Map foreBody = foreResp.getBody();
-            if (foreBody == null) {
-                return new WeatherResult("Sin datos de forecast", null);
-            }
-
-            // Prefer extracting from data.days (daily forecast). Use first day as 'today'.
-            Double precipProb = null;
-            String summary = null;
-            Object dataObj = foreBody.get("data");
-            Object daysObj = null;
-            if (dataObj instanceof Map) {
-                daysObj = ((Map) dataObj).get("days");
-            }
-            if (daysObj == null) {
-                // maybe top-level days
-                daysObj = foreBody.get("days");
-            }
-            if (daysObj instanceof List && !((List) daysObj).isEmpty()) {
-                Object first = ((List) daysObj).get(0);
-                if (first instanceof Map) {
-                    Map day0 = (Map) first;
-                    // extract rain_probability if present
-                    Object rp = day0.get("rain_probability");
-                    if (rp == null) rp = day0.get("rainProbability");
-                    if (rp == null) rp = day0.get("rain");
-                    precipProb = parseNumberToDouble(rp);
-                    if (precipProb != null) precipProb = normalizeProbability(precipProb);
-                    // build a simple summary from symbol/temperature
-                    Object symbol = day0.get("symbol");
-                    Object tmax = day0.get("temperature_max");
-                    if (symbol != null) summary = "Symbol:" + String.valueOf(symbol);
-                    if (summary == null && tmax != null) summary = "Tmax: " + tmax;
-                }
-            }
-
-            // fallback: recursive search if still null
-            if (summary == null) summary = findFirstStringForKeys(foreBody, new String[]{"summary","description","text","title","name"});
-            if (precipProb == null) precipProb = findPrecipitationProbabilityRecursive(foreBody);
-
-            return new WeatherResult(summary != null ? summary : "Clima disponible", precipProb);
+            hashesPorCoordenadas.put(coordenadas, hash);
+            return pronostico(hash, entity);
         } catch (Exception e) {
             log.warn("WeatherService call failed for {},{}: {}", lat, lon, e.toString());
             return new WeatherResult("Error consultando clima", null);
@@ -185,9 +190,16 @@ public class WeatherService {
                 headers.set("x-api-key", meteoredApiKey);
             }
             HttpEntity<Void> entity = new HttpEntity<>(headers);
+            // Comuna/región ya conocida: directo al pronóstico, sin búsqueda de ubicación
+            String clave = TextNormalizer.normalizePhrase(text);
+            String conocido = directorio.hash(clave);
+            if (conocido != null) {
+                return pronostico(conocido, entity);
+            }
             ResponseEntity<Map> locResp = restTemplate.exchange(locationUrl, HttpMethod.GET, entity, Map.class);
             Object locBody = locResp.getBody();
             String hash = null;
+            boolean enChile = false;
             // expected shape: { ok: true, data: { locations: [ {hash, name, country_name}, ... ] } }
             if (locBody instanceof Map) {
                 Map m = (Map) locBody;
@@ -203,7 +215,7 @@ public class WeatherService {
                                 Object country = it.get("country_name");
                                 if (country != null && country.toString().toLowerCase().contains("chile")) {
                                     Object h = it.get("hash");
-                                    if (h != null) { hash = String.valueOf(h); break; }
+                                    if (h != null) { hash = String.valueOf(h); enChile = true; break; }
                                 }
                             }
                         }
@@ -232,51 +244,161 @@ public class WeatherService {
                 return new WeatherResult("Sin hash ni datos de ubicación", null);
             }
 
-            // call forecast by hash (same logic as existing method)
-            String forecastUrl = String.format("%s/api/forecast/v1/daily/%s", meteoredUrl, hash);
-            if (meteoredApiKey != null && !meteoredApiKey.isBlank()) {
-                forecastUrl = forecastUrl + "?apikey=" + meteoredApiKey;
-            }
-            ResponseEntity<Map> foreResp = restTemplate.exchange(forecastUrl, HttpMethod.GET, entity, Map.class);
-            Map foreBody = foreResp.getBody();
-            if (foreBody == null) {
-                return new WeatherResult("Sin datos de forecast", null);
+            // Solo un resultado en Chile queda en el directorio; el primero de la lista sirve
+            // para esta consulta pero puede ser un homónimo de otro país
+            if (enChile) {
+                directorio.guardar(clave, hash);
             }
+            return pronostico(hash, entity);
+        } catch (Exception e) {
+            log.warn("WeatherService text-search call failed for {}: {}", text, e.toString());
+            return new WeatherResult("Error consultando clima", null);
+        }
+    }
 
-            Double precipProb = null;
-            String summary = null;
-            Object dataObj = foreBody.get("data");
-            Object daysObj = null;
-            if (dataObj instanceof Map) {
-                daysObj = ((Map) dataObj).get("days");
-            }
-            if (daysObj == null) {
-                daysObj = foreBody.get("days");
+    /**
+     * Pronóstico por hash desde la caché. Fresco: se devuelve tal cual. Vencido pero dentro de la
+     * ventana stale: se devuelve y se refresca en segundo plano. Sin entrada: una sola consulta a
+     * Meteored por hash, los llamadores simultáneos esperan esa misma consulta. Un refresco que
+     * falla, o que no trae probabilidad de lluvia, deja la entrada anterior hasta que se cumple
+     * la ventana stale.
+     */
+    private WeatherResult pronostico(String hash, HttpEntity<Void> entity) {
+        Pronostico p = pronosticos.get(hash);
+        if (p != null) {
+            if (System.currentTimeMillis() < p.frescoHasta()) {
+                frescos.increment();
+            } else {
+                vencidos.increment();
+                refrescar(hash, entity);
             }
-            if (daysObj instanceof List && !((List) daysObj).isEmpty()) {
-                Object first = ((List) daysObj).get(0);
-                if (first instanceof Map) {
-                    Map day0 = (Map) first;
-                    Object rp = day0.get("rain_probability");
-                    if (rp == null) rp = day0.get("rainProbability");
-                    if (rp == null) rp = day0.get("rain");
-                    precipProb = parseNumberToDouble(rp);
-                    if (precipProb != null) precipProb = normalizeProbability(precipProb);
-                    Object symbol = day0.get("symbol");
-                    Object tmax = day0.get("temperature_max");
-                    if (symbol != null) summary = "Symbol:" + String.valueOf(symbol);
-                    if (summary == null && tmax != null) summary = "Tmax: " + tmax;
+            return p.resultado();
+        }
+        faltantes.increment();
+        return buscar(hash, entity);
+    }
+
+    // Refresco en segundo plano: el lugar en enVuelo se toma antes de encolar la tarea, así dos
+    // lecturas vencidas simultáneas no lanzan dos consultas
+    private void refrescar(String hash, HttpEntity<Void> entity) {
+        CompletableFuture<WeatherResult> propia = new CompletableFuture<>();
+        if (enVuelo.putIfAbsent(hash, propia) != null) return;
+        try {
+            refrescos.execute(() -> {
+                try {
+                    consultar(hash, entity, propia);
+                } catch (Exception e) {
+                    log.debug("Refresco de pronóstico {} falló: {}", hash, e.toString());
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            enVuelo.remove(hash, propia);
+            propia.completeExceptionally(e);
+        }
+    }
+
+    // Single-flight: una consulta en curso por hash
+    private WeatherResult buscar(String hash, HttpEntity<Void> entity) {
+        CompletableFuture<WeatherResult> propia = new CompletableFuture<>();
+        CompletableFuture<WeatherResult> enCurso = enVuelo.putIfAbsent(hash, propia);
+        if (enCurso != null) {
+            return enCurso.join();
+        }
+        return consultar(hash, entity, propia);
+    }
+
+    // Consulta de quien tiene el lugar en enVuelo; lo libera al terminar
+    private WeatherResult consultar(String hash, HttpEntity<Void> entity, CompletableFuture<WeatherResult> propia) {
+        try {
+            consultas.increment();
+            WeatherResult r = consultarPronostico(hash, entity);
+            // Sin probabilidad de lluvia (respuesta vacía o sin días) no se guarda: la próxima lectura vuelve a consultar
+            if (r.isDisponible()) {
+                pronosticos.put(hash, new Pronostico(r, siguienteActualizacion()));
             }
+            propia.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            enVuelo.remove(hash, propia);
+        }
+    }
 
-            if (summary == null) summary = findFirstStringForKeys(foreBody, new String[]{"summary","description","text","title","name"});
-            if (precipProb == null) precipProb = findPrecipitationProbabilityRecursive(foreBody);
+    // Fin de la ventana fresca: el próximo múltiplo del intervalo de actualización de Meteored,
+    // así todas las entradas se renuevan juntas después de cada publicación
+    private long siguienteActualizacion() {
+        long ahora = System.currentTimeMillis();
+        return (ahora / intervaloMillis + 1) * intervaloMillis;
+    }
 
-            return new WeatherResult(summary != null ? summary : "Clima disponible", precipProb);
-        } catch (Exception e) {
-            log.warn("WeatherService text-search call failed for {}: {}", text, e.toString());
-            return new WeatherResult("Error consultando clima", null);
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cache", pronosticos.stats());
+        stats.put("frescos", frescos.sum());
+        stats.put("vencidos", vencidos.sum());
+        stats.put("faltantes", faltantes.sum());
+        stats.put("consultas_meteored", consultas.sum());
+        stats.put("directorio", directorio.stats());
+        stats.put("ubicaciones_por_coordenadas", hashesPorCoordenadas.stats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refrescos.shutdownNow();
+    }
+
+    private record Pronostico(WeatherResult resultado, long frescoHasta) { }
+
+    // Pronóstico diario por hash de Meteored; los errores de red se propagan al llamador
+    private WeatherResult consultarPronostico(String hash, HttpEntity<Void> entity) {
+        String forecastUrl = String.format("%s/api/forecast/v1/daily/%s", meteoredUrl, hash);
+        if (meteoredApiKey != null && !meteoredApiKey.isBlank()) {
+            forecastUrl = forecastUrl + "?apikey=" + meteoredApiKey;
+        }
+        ResponseEntity<Map> foreResp = restTemplate.exchange(forecastUrl, HttpMethod.GET, entity, Map.class);
+        Map foreBody = foreResp.getBody();
+        if (foreBody == null) {
+            return new WeatherResult("Sin datos de forecast", null);
         }
+
+        // Prefer extracting from data.days (daily forecast). Use first day as 'today'.
+        Double precipProb = null;
+        String summary = null;
+        Object dataObj = foreBody.get("data");
+        Object daysObj = null;
+        if (dataObj instanceof Map) {
+            daysObj = ((Map) dataObj).get("days");
+        }
+        if (daysObj == null) {
+            // maybe top-level days
+            daysObj = foreBody.get("days");
+        }
+        if (daysObj instanceof List && !((List) daysObj).isEmpty()) {
+            Object first = ((List) daysObj).get(0);
+            if (first instanceof Map) {
+                Map day0 = (Map) first;
+                // extract rain_probability if present
+                Object rp = day0.get("rain_probability");
+                if (rp == null) rp = day0.get("rainProbability");
+                if (rp == null) rp = day0.get("rain");
+                precipProb = parseNumberToDouble(rp);
+                if (precipProb != null) precipProb = normalizeProbability(precipProb);
+                // build a simple summary from symbol/temperature
+                Object symbol = day0.get("symbol");
+                Object tmax = day0.get("temperature_max");
+                if (symbol != null) summary = "Symbol:" + String.valueOf(symbol);
+                if (summary == null && tmax != null) summary = "Tmax: " + tmax;
+            }
+        }
+
+        // fallback: recursive search if still null
+        if (summary == null) summary = findFirstStringForKeys(foreBody, new String[]{"summary","description","text","title","name"});
+        if (precipProb == null) precipProb = findPrecipitationProbabilityRecursive(foreBody);
+
+        return new WeatherResult(summary != null ? summary : "Clima disponible", precipProb);
     }
 
     private String findFirstStringForKeys(Map map, String[] keys) {
@@ -0,0 +1,170 @@
+package com.example.miapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.example.miapp.dto.CheckoutRequest;
+import com.example.miapp.model.OrdenItem;
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.ProductoRepository;
+
+@SpringBootTest
+@ActiveProfiles("dev")
+class CarritoStoreTest {
+
+	@Autowired
+	private CarritoStore store;
+	@Autowired
+	private CheckoutService checkoutService;
+	@Autowired
+	private ProductoRepository productoRepository;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void altaDelMismoProductoSeFusionaEnMemoria() {
+		String sesion = sesionUnica();
+		Producto producto = producto();
+
+		CarritoLinea primera = store.agregar(linea(sesion, producto, 2));
+		CarritoLinea segunda = store.agregar(linea(sesion, producto, 3));
+		assertEquals(primera.id(), segunda.id());
+		assertEquals(5, segunda.cantidad());
+		assertEquals(List.of(segunda), store.lineas(sesion, null));
+
+		// La suma vivía solo en memoria hasta el flush
+		assertEquals(2, cantidadEnBase(primera.id()));
+		store.flush();
+		assertEquals(5, cantidadEnBase(primera.id()));
+	}
+
+	@Test
+	void altaSobreFilaEscritaPorOtroCaminoRecargaElCarrito() {
+		String sesion = sesionUnica();
+		Producto producto = producto();
+		Producto otro = producto();
+		store.agregar(linea(sesion, otro, 1));
+
+		// Otra instancia inserta el producto en el mismo carrito: esta no la tiene en memoria
+		jdbcTemplate.update("insert into carrito_items (session_id, producto_id, nombre, precio, cantidad, carrito_clave) "
+				+ "values (?, ?, ?, ?, ?, ?)", sesion, producto.getId(), producto.getNombre(), producto.getPrecio(), 4, "s:" + sesion);
+		long fusionadas = (long) store.stats().get("altas_fusionadas");
+
+		CarritoLinea linea = store.agregar(linea(sesion, producto, 1));
+		assertEquals(5, linea.cantidad());
+		assertEquals(fusionadas + 1, store.stats().get("altas_fusionadas"));
+		// El carrito se recargó: tiene la fila ajena con la suma y la línea propia
+		assertEquals(2, store.lineas(sesion, null).size());
+		assertEquals(5, cantidadEnBase(linea.id()));
+	}
+
+	@Test
+	void lineaBorradaPorOtroCaminoNoSeResucita() {
+		String sesion = sesionUnica();
+		Producto producto = producto();
+		CarritoLinea linea = store.agregar(linea(sesion, producto, 1));
+		store.actualizar(linea.id(), l -> l.withCantidad(7));
+
+		// El update pendiente no encuentra la fila: no la reinserta y el carrito se recarga vacío
+		jdbcTemplate.update("delete from carrito_items where id = ?", linea.id());
+		store.flush();
+		assertEquals(0, jdbcTemplate.queryForObject("select count(*) from carrito_items where session_id = ?", Integer.class, sesion));
+		assertEquals(List.of(), store.lineas(sesion, null));
+	}
+
+	@Test
+	void altasConcurrentesDelMismoProductoNoPierdenUnidades() throws Exception {
+		String sesion = sesionUnica();
+		Producto producto = producto();
+		int hilos = 8;
+		int porHilo = 25;
+		long fusionadas = (long) store.stats().get("altas_fusionadas");
+		ExecutorService pool = Executors.newFixedThreadPool(hilos);
+		CountDownLatch partida = new CountDownLatch(1);
+		List<Future<?>> resultados = new ArrayList<>();
+		try {
+			for (int h = 0; h < hilos; h++) {
+				resultados.add(pool.submit(() -> {
+					partida.await();
+					for (int i = 0; i < porHilo; i++) {
+						store.agregar(linea(sesion, producto, 1));
+					}
+					return null;
+				}));
+			}
+			partida.countDown();
+			for (Future<?> resultado : resultados) {
+				resultado.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		// El lock de altas del carrito deja una sola fila: la primera alta inserta y las demás se fusionan
+		// en memoria, sin que un upsert caiga sobre la fila que insertó otro hilo
+		List<CarritoLinea> lineas = store.lineas(sesion, null);
+		assertEquals(1, lineas.size());
+		assertEquals(fusionadas, store.stats().get("altas_fusionadas"));
+		assertEquals(hilos * porHilo, lineas.get(0).cantidad());
+		store.flush();
+		assertEquals(hilos * porHilo, cantidadEnBase(lineas.get(0).id()));
+	}
+
+	@Test
+	void checkoutEscribeLosCambiosPendientes() {
+		String sesion = sesionUnica();
+		Producto producto = producto();
+		CarritoLinea linea = store.agregar(linea(sesion, producto, 1));
+		store.actualizar(linea.id(), l -> l.withCantidad(3));
+		assertTrue(store.enMemoria(linea.id()));
+
+		CheckoutRequest req = new CheckoutRequest();
+		req.setSessionId(sesion);
+		req.setRegion("RM");
+		req.setComuna("Comuna " + sesion);
+		CheckoutService.Result result = checkoutService.checkout(req);
+
+		// La cantidad cambiada solo en memoria llega a la orden, y la línea consumida sale de memoria
+		List<OrdenItem> items = result.getItems();
+		assertEquals(1, items.size());
+		assertEquals(3, items.get(0).getCantidad());
+		assertEquals(30.0, result.getOrden().getTotal());
+		assertEquals(List.of(), store.lineas(sesion, null));
+		assertTrue(!store.enMemoria(linea.id()));
+	}
+
+	private Producto producto() {
+		Producto p = new Producto();
+		p.setNombre("Producto " + UUID.randomUUID());
+		p.setPrecio(10.0);
+		p.setCategoria("Carrito");
+		return productoRepository.save(p);
+	}
+
+	private static CarritoLinea linea(String sesion, Producto producto, int cantidad) {
+		return new CarritoLinea(null, sesion, null, producto.getId(), producto.getNombre(), null, producto.getPrecio(), cantidad);
+	}
+
+	private int cantidadEnBase(Long id) {
+		return jdbcTemplate.queryForObject("select cantidad from carrito_items where id = ?", Integer.class, id);
+	}
+
+	// Cada prueba usa su propia sesión: el contexto (y la base) es compartido
+	private static String sesionUnica() {
+		return "sesion-" + UUID.randomUUID();
+	}
+}
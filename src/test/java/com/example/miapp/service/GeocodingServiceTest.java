@@ -0,0 +1,88 @@
+package com.example.miapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import com.example.miapp.repository.GeocodificacionRepository;
+import com.sun.net.httpserver.HttpServer;
+
+class GeocodingServiceTest {
+
+	// 5 variantes: "..., Santiago, Chile", "..., Chile", la dirección, "Maipu, Region Metropolitana, Chile"
+	// y "Region Metropolitana, Chile"
+	private static final String DIRECCION = "Av Pajaritos 123, Maipu, Region Metropolitana";
+	private static final int VARIANTES = 5;
+
+	private HttpServer nominatim;
+	private final AtomicInteger llamadas = new AtomicInteger();
+
+	@BeforeEach
+	void iniciarNominatim() throws IOException {
+		nominatim = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		nominatim.createContext("/search", intercambio -> {
+			llamadas.incrementAndGet();
+			// Todas las variantes tienen resultado: gana la que consulte primero
+			String cuerpo = "[{\"lat\":\"-33.51\",\"lon\":\"-70.75\",\"display_name\":\"Maipu\"}]";
+			byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+			intercambio.getResponseHeaders().set("Content-Type", "application/json");
+			intercambio.sendResponseHeaders(200, bytes.length);
+			intercambio.getResponseBody().write(bytes);
+			intercambio.close();
+		});
+		nominatim.start();
+	}
+
+	@AfterEach
+	void detenerNominatim() {
+		nominatim.stop(0);
+	}
+
+	@Test
+	void variantesPerdedorasNoLlamanANominatim() throws Exception {
+		// Un turno cada 2 s y plazo de 1 s: la primera variante en llegar consulta y las demás
+		// quedan en la cola del TokenBucket cuando vence el plazo
+		GeocodingService service = servicio(0.5, 1_000);
+
+		Optional<Location> loc = service.geocode(DIRECCION);
+		assertTrue(loc.isPresent());
+
+		// Más que el próximo turno: una variante que siguiera viva ya habría llamado
+		Thread.sleep(3_000);
+		Map<String, Object> stats = service.stats();
+		assertEquals(1, llamadas.get());
+		assertEquals(1L, stats.get("consultas_nominatim"));
+		assertEquals((long) VARIANTES - 1, stats.get("abandonadas"));
+	}
+
+	private GeocodingService servicio(double porSegundo, long deadlineMillis) {
+		return new GeocodingService(new RestTemplate(), repositorioVacio(),
+				"http://127.0.0.1:" + nominatim.getAddress().getPort(), "MiappTest/1.0",
+				100, 30, 6, porSegundo, 1, 30_000, true, deadlineMillis);
+	}
+
+	// Caché persistente siempre vacía: toda dirección se resuelve contra Nominatim
+	private static GeocodificacionRepository repositorioVacio() {
+		return (GeocodificacionRepository) Proxy.newProxyInstance(GeocodificacionRepository.class.getClassLoader(),
+				new Class<?>[] {GeocodificacionRepository.class}, (proxy, metodo, args) -> switch (metodo.getName()) {
+					case "findById" -> Optional.empty();
+					case "save" -> args[0];
+					case "hashCode" -> System.identityHashCode(proxy);
+					case "equals" -> proxy == args[0];
+					case "toString" -> "GeocodificacionRepository vacío";
+					default -> null;
+				});
+	}
+}
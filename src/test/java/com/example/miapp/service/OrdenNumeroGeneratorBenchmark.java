@@ -0,0 +1,59 @@
+package com.example.miapp.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput de OrdenNumeroGenerator con uno y con ocho hilos compartiendo la instancia.
+ * No corre con mvn test; se ejecuta con:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.example.miapp.service.OrdenNumeroGeneratorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrdenNumeroGeneratorBenchmark {
+
+	private final OrdenNumeroGenerator generator = new OrdenNumeroGenerator(1);
+
+	@Benchmark
+	@Threads(1)
+	public long nextIdUnHilo() {
+		return generator.nextId();
+	}
+
+	// Ocho hilos compiten por el mismo AtomicLong: mide el costo de los CAS fallidos
+	@Benchmark
+	@Threads(8)
+	public long nextIdOchoHilos() {
+		return generator.nextId();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String nextNumeroOrdenOchoHilos() {
+		return generator.nextNumeroOrden();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(OrdenNumeroGeneratorBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,130 @@
+package com.example.miapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+class OrdenNumeroGeneratorTest {
+
+	private static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+	private static final int SEQUENCE_BITS = 12;
+	private static final int NODE_BITS = 10;
+
+	@Test
+	void idsUnicosYCrecientesEntreHilos() throws Exception {
+		OrdenNumeroGenerator generator = new OrdenNumeroGenerator(7);
+		int hilos = 8;
+		int porHilo = 50_000;
+		ExecutorService pool = Executors.newFixedThreadPool(hilos);
+		CountDownLatch partida = new CountDownLatch(1);
+		List<Future<long[]>> resultados = new ArrayList<>();
+		try {
+			for (int h = 0; h < hilos; h++) {
+				resultados.add(pool.submit(() -> {
+					partida.await();
+					long[] ids = new long[porHilo];
+					for (int i = 0; i < porHilo; i++) {
+						ids[i] = generator.nextId();
+					}
+					return ids;
+				}));
+			}
+			partida.countDown();
+
+			Set<Long> todos = new HashSet<>();
+			for (Future<long[]> resultado : resultados) {
+				long[] ids = resultado.get();
+				for (int i = 0; i < ids.length; i++) {
+					// Dentro de un hilo cada id es mayor que el anterior
+					if (i > 0) assertTrue(ids[i] > ids[i - 1], "id no creciente en la posición " + i);
+					assertEquals(7, nodo(ids[i]));
+					todos.add(ids[i]);
+				}
+			}
+			assertEquals(hilos * porHilo, todos.size());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void secuenciaAgotadaAcarreaAlMilisegundoSiguiente() {
+		long ahora = EPOCH_MILLIS + 1_000_000;
+		OrdenNumeroGenerator generator = new OrdenNumeroGenerator(3, () -> ahora);
+
+		long anterior = -1;
+		for (int i = 0; i < 3 * 4096; i++) {
+			long id = generator.nextId();
+			assertTrue(id > anterior);
+			// Con el reloj detenido, cada 4096 ids el milisegundo lógico avanza uno y la secuencia vuelve a 0
+			assertEquals(1_000_000 + i / 4096, milisegundo(id));
+			assertEquals(i % 4096, secuencia(id));
+			anterior = id;
+		}
+	}
+
+	@Test
+	void relojQueRetrocedeNoRepiteNiRetrocede() {
+		AtomicLong reloj = new AtomicLong(EPOCH_MILLIS + 5_000);
+		OrdenNumeroGenerator generator = new OrdenNumeroGenerator(1, reloj::get);
+
+		long antes = generator.nextId();
+		reloj.addAndGet(-2_000);
+		long despues = generator.nextId();
+		assertTrue(despues > antes);
+		assertEquals(milisegundo(antes), milisegundo(despues));
+
+		// Cuando el reloj vuelve a avanzar, la secuencia reinicia en el milisegundo nuevo
+		reloj.set(EPOCH_MILLIS + 6_000);
+		long nuevo = generator.nextId();
+		assertEquals(6_000, milisegundo(nuevo));
+		assertEquals(0, secuencia(nuevo));
+	}
+
+	@Test
+	void numeroDeOrdenLegible() {
+		OrdenNumeroGenerator generator = new OrdenNumeroGenerator(0);
+		String numero = generator.nextNumeroOrden();
+		assertTrue(numero.matches("ORD-[0-9A-Z]+"), numero);
+	}
+
+	@Test
+	void sinNodeIdSoloArrancaEnDev() {
+		MockEnvironment prod = new MockEnvironment();
+		prod.setActiveProfiles("prod");
+		assertThrows(IllegalStateException.class, () -> OrdenNumeroGenerator.nodeIdConfigurado(-1, prod));
+		assertThrows(IllegalStateException.class, () -> OrdenNumeroGenerator.nodeIdConfigurado(-1, new MockEnvironment()));
+		assertEquals(5, OrdenNumeroGenerator.nodeIdConfigurado(5, prod));
+
+		MockEnvironment dev = new MockEnvironment();
+		dev.setActiveProfiles("dev");
+		long derivado = OrdenNumeroGenerator.nodeIdConfigurado(-1, dev);
+		assertTrue(derivado >= 0 && derivado < (1L << NODE_BITS));
+	}
+
+	private static long milisegundo(long id) {
+		return id >>> (NODE_BITS + SEQUENCE_BITS);
+	}
+
+	private static long nodo(long id) {
+		return (id >>> SEQUENCE_BITS) & ((1L << NODE_BITS) - 1);
+	}
+
+	private static long secuencia(long id) {
+		return id & ((1L << SEQUENCE_BITS) - 1);
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.miapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.ProductoRepository;
+
+class ProductoSearchIndexTest {
+
+	private ProductoSearchIndex index;
+
+	@BeforeEach
+	void construirIndice() {
+		List<Producto> productos = List.of(
+				producto(1L, "Lámpara de mesa", "Hogar"),
+				producto(2L, "Consola de juegos", "Electrónica"),
+				producto(3L, "Polerón sintético", "Ropa"),
+				producto(4L, "Mesa de centro", "Hogar"));
+		ProductoRepository repo = (ProductoRepository) Proxy.newProxyInstance(ProductoRepository.class.getClassLoader(),
+				new Class<?>[] {ProductoRepository.class},
+				(proxy, metodo, args) -> metodo.getName().equals("findAll") ? productos : null);
+		index = new ProductoSearchIndex(repo);
+		index.rebuild();
+	}
+
+	@Test
+	void prefijoQueEsPalabraVaciaSeConserva() {
+		assertEquals(List.of(1L), ids("la"));
+		assertEquals(List.of(3L), ids("sin"));
+		assertEquals(List.of(2L), ids("con"));
+		assertEquals(List.of(1L), ids("mesa la"));
+	}
+
+	@Test
+	void palabraVaciaCompletaNoFiltra() {
+		// Con el separador final la palabra ya está completa: es vacía y se descarta
+		assertEquals(List.of(), ids("la "));
+		assertEquals(List.of(1L, 4L), ids("de mesa"));
+		// Como prefijo "con" no coincide con ninguna mesa: se lee como la palabra vacía
+		assertEquals(List.of(1L, 4L), ids("mesa con"));
+	}
+
+	@Test
+	void tokenizeQueryConservaSoloElUltimoPrefijo() {
+		assertEquals(List.of("mesa", "la"), TextNormalizer.tokenizeQuery("la mesa la"));
+		assertEquals(List.of("mesa"), TextNormalizer.tokenizeQuery("la mesa la "));
+		assertEquals(List.of("mesa"), TextNormalizer.tokenize("la mesa la"));
+	}
+
+	private List<Long> ids(String query) {
+		return index.search(query, 10).stream().map(Producto::getId).sorted().toList();
+	}
+
+	private static Producto producto(Long id, String nombre, String categoria) {
+		Producto p = new Producto();
+		p.setId(id);
+		p.setNombre(nombre);
+		p.setCategoria(categoria);
+		p.setPrecio(1000.0);
+		return p;
+	}
+}
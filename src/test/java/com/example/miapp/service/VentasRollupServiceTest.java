@@ -0,0 +1,181 @@
+package com.example.miapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.example.miapp.dto.VentasReporteResponse;
+import com.example.miapp.model.Orden;
+import com.example.miapp.model.OrdenItem;
+import com.example.miapp.model.Producto;
+import com.example.miapp.repository.OrdenItemRepository;
+import com.example.miapp.repository.OrdenRepository;
+import com.example.miapp.repository.ProductoRepository;
+
+@SpringBootTest
+@ActiveProfiles("dev")
+class VentasRollupServiceTest {
+
+	@Autowired
+	private VentasRollupService ventasRollup;
+	@Autowired
+	private OrdenRepository ordenRepository;
+	@Autowired
+	private OrdenItemRepository ordenItemRepository;
+	@Autowired
+	private ProductoRepository productoRepository;
+	@Autowired
+	private OrdenNumeroGenerator numeroGenerator;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void rollupSigueCadaEscrituraDeOrdenes() {
+		String comunaA = comunaUnica();
+		String comunaB = comunaUnica();
+		Producto producto = producto("Frutas");
+		Orden ordenA = orden(comunaA);
+		Orden ordenB = orden(comunaB);
+		OrdenItem movido = item(ordenA, producto, 2, 100.0);
+		item(ordenA, producto, 1, 30.0);
+		assertEquals(Map.of("Frutas", 130.0), celdas(comunaA));
+
+		// El item pasa a una orden de otra comuna: se descuenta de una y se suma a la otra
+		ventasRollup.conAjuste(List.of(ordenA.getId(), ordenB.getId()), () -> {
+			OrdenItem oi = ordenItemRepository.findById(movido.getId()).orElseThrow();
+			oi.setOrden(ordenRepository.getReferenceById(ordenB.getId()));
+			return ordenItemRepository.save(oi);
+		});
+		assertEquals(Map.of("Frutas", 30.0), celdas(comunaA));
+		assertEquals(Map.of("Frutas", 100.0), celdas(comunaB));
+
+		// Una orden cancelada deja de aportar
+		ventasRollup.conAjuste(List.of(ordenB.getId()), () -> {
+			Orden o = ordenRepository.findById(ordenB.getId()).orElseThrow();
+			o.setEstado("CANCELADA");
+			return ordenRepository.save(o);
+		});
+		assertEquals(Map.of(), celdas(comunaB));
+
+		// Borrar la orden (con sus items en cascada) descuenta todo su aporte
+		ventasRollup.conAjuste(List.of(ordenA.getId()), () -> {
+			ordenRepository.delete(ordenRepository.findById(ordenA.getId()).orElseThrow());
+			return null;
+		});
+		assertEquals(Map.of(), celdas(comunaA));
+	}
+
+	@Test
+	void reconstruirCoincideConElIncremental() {
+		String comuna = comunaUnica();
+		Producto frutas = producto("Frutas");
+		Producto verduras = producto("Verduras");
+		Orden pagada = orden(comuna);
+		item(pagada, frutas, 3, 90.0);
+		item(pagada, verduras, 1, 15.0);
+		Orden cancelada = orden(comuna);
+		item(cancelada, frutas, 1, 30.0);
+		ventasRollup.conAjuste(List.of(cancelada.getId()), () -> {
+			Orden o = ordenRepository.findById(cancelada.getId()).orElseThrow();
+			o.setEstado("CANCELADA");
+			return ordenRepository.save(o);
+		});
+		Map<String, Double> incremental = celdas(comuna);
+		assertEquals(Map.of("Frutas", 90.0, "Verduras", 15.0), incremental);
+
+		ventasRollup.reconstruir();
+		assertEquals(incremental, celdas(comuna));
+	}
+
+	@Test
+	void altaDeCeldaIdempotenteEnAmbasVariantes() {
+		// MERGE (H2) y on conflict do nothing (PostgreSQL; H2 lo acepta en modo PostgreSQL)
+		for (String base : List.of("H2", "PostgreSQL")) {
+			String comuna = comunaUnica();
+			String sql = VentasRollupService.insertSql(base);
+			for (int i = 0; i < 2; i++) {
+				jdbcTemplate.update(sql, LocalDate.now(), "RM", comuna, "Frutas");
+			}
+			assertEquals(1, jdbcTemplate.queryForObject(
+					"select count(*) from venta_diaria where comuna = ? and total = 0 and unidades = 0", Integer.class, comuna), base);
+		}
+	}
+
+	@Test
+	void cambiarCategoriaDelProductoNoDescuadraElRollup() {
+		String comuna = comunaUnica();
+		Producto producto = producto("Frutas");
+		Orden orden = orden(comuna);
+		OrdenItem item = item(orden, producto, 2, 100.0);
+		assertEquals(Map.of("Frutas", 100.0), celdas(comuna));
+
+		// La categoría cambia después de sumar la orden: el item conserva la suya
+		producto.setCategoria("Verduras");
+		productoRepository.save(producto);
+		item(orden, producto, 1, 50.0);
+		assertEquals(Map.of("Frutas", 100.0, "Verduras", 50.0), celdas(comuna));
+
+		// Borrar el item descuenta de la celda donde se sumó, sin dejar celdas negativas
+		ventasRollup.conAjuste(List.of(orden.getId()), () -> {
+			ordenItemRepository.deleteById(item.getId());
+			return null;
+		});
+		assertEquals(Map.of("Verduras", 50.0), celdas(comuna));
+	}
+
+	private Producto producto(String categoria) {
+		Producto p = new Producto();
+		p.setNombre("Producto " + categoria);
+		p.setPrecio(50.0);
+		p.setCategoria(categoria);
+		return productoRepository.save(p);
+	}
+
+	private Orden orden(String comuna) {
+		Orden o = new Orden();
+		o.setNumeroOrden(numeroGenerator.nextNumeroOrden());
+		o.setEstado("PENDIENTE");
+		o.setTotal(0.0);
+		o.setRegion("RM");
+		o.setComuna(comuna);
+		return ventasRollup.registrarNueva(() -> ordenRepository.save(o), Orden::getId);
+	}
+
+	private OrdenItem item(Orden orden, Producto producto, int cantidad, double subtotal) {
+		OrdenItem oi = new OrdenItem();
+		oi.setOrden(ordenRepository.getReferenceById(orden.getId()));
+		oi.setProducto(productoRepository.getReferenceById(producto.getId()));
+		oi.setNombre(producto.getNombre());
+		oi.setCantidad(cantidad);
+		oi.setPrecioUnitario(subtotal / cantidad);
+		oi.setSubtotal(subtotal);
+		return ventasRollup.conAjuste(List.of(orden.getId()), () -> ordenItemRepository.save(oi));
+	}
+
+	// Total por categoría de la comuna; las celdas en cero no aparecen en el reporte
+	private Map<String, Double> celdas(String comuna) {
+		LocalDate hoy = LocalDate.now();
+		VentasReporteResponse reporte = ventasRollup.reporte(hoy.minusDays(2), hoy.plusDays(2), null, comuna, null,
+				List.of("categoria"));
+		Map<String, Double> celdas = new LinkedHashMap<>();
+		for (VentasReporteResponse.Fila fila : reporte.getFilas()) {
+			celdas.put(fila.getCategoria(), fila.getTotal());
+		}
+		return celdas;
+	}
+
+	// Cada prueba escribe en su propia comuna: el contexto (y la base) es compartido
+	private static String comunaUnica() {
+		return "Comuna " + UUID.randomUUID();
+	}
+}